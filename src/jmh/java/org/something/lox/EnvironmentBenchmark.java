@@ -0,0 +1,64 @@
+package org.something.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Local variable access: reads through a chain of enclosing environments
+ * and the allocation cost of a fresh scope.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironmentBenchmark {
+    private static final int SLOTS = 4;
+
+    @Param({"0", "4", "16"})
+    int distance;
+
+    private Environment innermost;
+    private final Double value = 1.0;
+
+    @Setup
+    public void setup() {
+        innermost = new Environment();
+        for (int i = 0; i <= distance; i++) {
+            innermost = new Environment(innermost, SLOTS);
+            innermost.define(value);
+            innermost.defineNumber(i);
+        }
+    }
+
+    @Benchmark
+    public Object getAt() {
+        return innermost.getAt(distance, 0);
+    }
+
+    @Benchmark
+    public double getNumberAt() {
+        return innermost.getNumberAt(distance, 1);
+    }
+
+    @Benchmark
+    public Environment define() {
+        Environment scope = new Environment(innermost, SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            scope.define(value);
+        }
+        return scope;
+    }
+}
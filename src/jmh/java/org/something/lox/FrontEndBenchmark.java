@@ -0,0 +1,80 @@
+package org.something.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanner, Parser and Resolver throughput on generated sources. Each stage
+ * consumes the output of the previous one prepared in setup, so it is
+ * measured on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"program", "deepScopes", "wideClasses"})
+    String input;
+
+    @Param({"100", "1000"})
+    int size;
+
+    private String source;
+    private List<Token> tokens;
+    private TokenBuffer buffer;
+    private List<Stmt> program;
+
+    @Setup
+    public void setup() {
+        switch (input) {
+            case "program": source = LoxSources.program(size); break;
+            case "deepScopes": source = LoxSources.deepScopes(size); break;
+            case "wideClasses": source = LoxSources.wideClasses(size); break;
+            default: throw new IllegalArgumentException("Unknown input '" + input + "'.");
+        }
+        tokens = new Scanner(source).scanTokens();
+        buffer = TokenBuffer.scan(source);
+        program = LoxSources.resolve(source);
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public TokenBuffer scanBuffer() {
+        return TokenBuffer.scan(source);
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> parseBuffer() {
+        return new Parser(buffer).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        // Resolution only overwrites the same depth and slot on each pass.
+        new Resolver().resolve(program);
+        return program;
+    }
+}
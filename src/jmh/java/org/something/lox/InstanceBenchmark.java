@@ -0,0 +1,66 @@
+package org.something.lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Property lookup on instances of various widths, by name and through the
+ * inline cache of a {@code Expr.Get} site.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceBenchmark {
+    @Param({"1", "8", "64"})
+    int fields;
+
+    private LoxInstance instance;
+    private Token lastField;
+    private Token method;
+    private Expr.Get cachedGet;
+    private final InlineCache.Table caches = new InlineCache.Table();
+
+    @Setup
+    public void setup() {
+        LoxFunction area = new LoxFunction("area",
+                new Expr.Fun(List.of(), List.of()), null, true, false);
+        instance = new LoxInstance(new LoxClass("Wide", 0, null, Map.of("area", area)));
+        for (int i = 0; i < fields; i++) {
+            lastField = new Token(TokenType.IDENTIFIER, "f" + i, null, 1);
+            instance.set(lastField, (double) i);
+        }
+        method = new Token(TokenType.IDENTIFIER, "area", null, 1);
+        cachedGet = new Expr.Get(null, lastField);
+    }
+
+    @Benchmark
+    public Object getField() {
+        return instance.get(lastField);
+    }
+
+    @Benchmark
+    public Object getMethod() {
+        return instance.get(method);
+    }
+
+    @Benchmark
+    public Object getCached() {
+        return instance.get(cachedGet, caches);
+    }
+}
@@ -0,0 +1,58 @@
+package org.something.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole programs run on the tree-walking interpreter and on the VM. The
+ * program is prepared once; each invocation runs it with fresh globals.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "loop", "objects", "strings"})
+    String workload;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private List<Stmt> program;
+    private Obj.Function script;
+
+    @Setup
+    public void setup() {
+        program = LoxSources.resolve(LoxSources.workload(workload));
+        script = new BytecodeCompiler().compile(program);
+    }
+
+    @Benchmark
+    public void interpret() {
+        boolean failed;
+        if (engine.equals("vm")) {
+            VM vm = new VM();
+            vm.interpret(script);
+            failed = vm.hadRuntimeError;
+        } else {
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(program);
+            failed = interpreter.hadRuntimeError;
+        }
+        if (failed) throw new IllegalStateException("Workload failed.");
+    }
+}
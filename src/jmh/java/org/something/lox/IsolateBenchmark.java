@@ -0,0 +1,49 @@
+package org.something.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One shared Program run by a fresh Isolate on every benchmark thread.
+ * Compare throughput against a run with -t 1 to see how well isolates
+ * scale across cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class IsolateBenchmark {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    @Param({"fib", "loop", "objects", "strings"})
+    String workload;
+
+    private Program program;
+
+    @Setup
+    public void setup() {
+        program = Program.compile(LoxSources.workload(workload));
+    }
+
+    @Benchmark
+    public boolean run() {
+        return new Isolate(DISCARD, DISCARD).run(program);
+    }
+}
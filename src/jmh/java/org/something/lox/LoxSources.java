@@ -0,0 +1,96 @@
+package org.something.lox;
+
+import java.util.List;
+
+/**
+ * Generated Lox programs for the benchmarks. Inputs are built from a size
+ * parameter so the front end can be measured on sources of any length.
+ */
+final class LoxSources {
+    private LoxSources() {}
+
+    // A mix of classes, functions, loops, strings and comments.
+    static String program(int units) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < units; i++) {
+            source.append("// unit ").append(i).append('\n')
+                  .append("class Shape").append(i).append(" {\n")
+                  .append("  init(w, h) { this.w = w; this.h = h; }\n")
+                  .append("  area() { return this.w * this.h; }\n")
+                  .append("}\n")
+                  .append("fun work").append(i).append("(n) {\n")
+                  .append("  var total = 0;\n")
+                  .append("  for (var j = 0; j < n; j = j + 1) {\n")
+                  .append("    if (j >= 10 and total != nil) { total = total + j * 2; }\n")
+                  .append("    else { total = total - 1; }\n")
+                  .append("  }\n")
+                  .append("  var shape = Shape").append(i).append("(n, ").append(i).append(".5);\n")
+                  .append("  return total + shape.area();\n")
+                  .append("}\n")
+                  .append("var label").append(i).append(" = \"unit \" + \"").append(i).append("\";\n");
+        }
+        return source.toString();
+    }
+
+    // Blocks nested depth deep, each reading locals from every enclosing scope.
+    static String deepScopes(int depth) {
+        StringBuilder source = new StringBuilder("fun deep() {\n");
+        for (int i = 0; i < depth; i++) {
+            source.append("var v").append(i).append(" = ").append(i).append(";\n")
+                  .append("v0 = v0 + v").append(i).append(";\n")
+                  .append("{\n");
+        }
+        for (int i = 0; i < depth; i++) {
+            source.append("}\n");
+        }
+        return source.append("return v0;\n}\n").toString();
+    }
+
+    // Classes with many fields, set in the initializer and read back in a method.
+    static String wideClasses(int fields) {
+        StringBuilder source = new StringBuilder("class Wide {\n  init() {\n");
+        for (int i = 0; i < fields; i++) {
+            source.append("    this.f").append(i).append(" = ").append(i).append(";\n");
+        }
+        source.append("  }\n  sum() {\n    return 0");
+        for (int i = 0; i < fields; i++) {
+            source.append(" + this.f").append(i);
+        }
+        return source.append(";\n  }\n}\nvar total = Wide().sum();\n").toString();
+    }
+
+    // Interpreter workloads. None of them print, so runs measure execution only.
+    static String workload(String name) {
+        switch (name) {
+            case "fib":
+                return "fun fib(n) { if (n < 2) return n; return fib(n - 2) + fib(n - 1); }\n"
+                        + "var result = fib(20);\n";
+            case "loop":
+                return "var sum = 0;\n"
+                        + "for (var i = 0; i < 100000; i = i + 1) { sum = sum + i * 2 - 1; }\n";
+            case "objects":
+                return "class Point {\n"
+                        + "  init(x, y) { this.x = x; this.y = y; }\n"
+                        + "  add(other) { return Point(this.x + other.x, this.y + other.y); }\n"
+                        + "}\n"
+                        + "var p = Point(0, 0);\n"
+                        + "for (var i = 0; i < 20000; i = i + 1) { p = p.add(Point(1, 2)); }\n";
+            case "strings":
+                return "var s = \"\";\n"
+                        + "for (var i = 0; i < 2000; i = i + 1) { s = s + \"x\"; }\n";
+            default:
+                throw new IllegalArgumentException("Unknown workload '" + name + "'.");
+        }
+    }
+
+    static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source).scanTokens()).parse();
+    }
+
+    static List<Stmt> resolve(String source) {
+        List<Stmt> program = parse(source);
+        new Resolver().resolve(program);
+        if (Lox.hadError) throw new IllegalStateException("Benchmark source has errors.");
+        return program;
+    }
+}
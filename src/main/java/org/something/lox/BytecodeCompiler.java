@@ -0,0 +1,636 @@
+package org.something.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.something.lox.OpCode.*;
+
+/**
+ * Compiles a resolved program into bytecode for the {@link VM}. Static errors
+ * are reported by the Resolver beforehand, so this pass assumes valid input.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class UpvalueRef {
+        final int index;
+        final boolean isLocal;
+
+        UpvalueRef(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Obj.Function function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, Obj.Function function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the callee, or the receiver inside methods.
+            locals.add(new Local(type == FunctionType.FUNCTION || type == FunctionType.SCRIPT
+                    ? "" : "this", 0));
+            stackDepth = 1;
+            function.maxStack = 1;
+        }
+    }
+
+    // File being compiled, for runtime errors; null for a single source.
+    private final String source;
+    private FunctionState current = null;
+    private int line = 1;
+
+    BytecodeCompiler() {
+        this(null);
+    }
+
+    BytecodeCompiler(String source) {
+        this.source = source;
+    }
+
+    Obj.Function compile(List<Stmt> program) {
+        current = new FunctionState(null, new Obj.Function(null, source), FunctionType.SCRIPT);
+
+        for (Stmt statement : program) {
+            if (statement instanceof Stmt.Expression) {
+                // Top-level expression statements echo their value, like the Interpreter.
+                compile(((Stmt.Expression) statement).expression);
+                emit(PRINT);
+            } else {
+                compile(statement);
+            }
+        }
+
+        return endFunction();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        int nameConstant = identifierConstant(stmt.name);
+        declareVariable(stmt.name.lexeme);
+
+        emit(CLASS, nameConstant);
+        defineVariable(nameConstant);
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            namedVariable(stmt.name.lexeme);
+            line = stmt.superclass.name.line;
+            emit(INHERIT);
+        }
+
+        namedVariable(stmt.name.lexeme);
+        for (Stmt.Fun method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method.function, method.name.lexeme, type);
+            emit(METHOD, identifierConstant(method.name));
+        }
+        emit(POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        line = stmt.name.line;
+        int nameConstant = identifierConstant(stmt.name);
+        declareVariable(stmt.name.lexeme);
+        markInitialized();
+        function(stmt.function, stmt.name.lexeme, FunctionType.FUNCTION);
+        defineVariable(nameConstant);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(JUMP_IF_FALSE);
+        emit(POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(JUMP);
+        patchJump(thenJump);
+        // The condition is still on the stack along the else path.
+        adjustStack(1);
+        emit(POP);
+
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        int nameConstant = identifierConstant(stmt.name);
+        declareVariable(stmt.name.lexeme);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(NIL);
+        }
+
+        defineVariable(nameConstant);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(JUMP_IF_FALSE);
+        emit(POP);
+
+        Loop loop = new Loop(current.loop, current.scopeDepth);
+        current.loop = loop;
+        compile(stmt.body);
+        current.loop = loop.enclosing;
+
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        adjustStack(1);
+        emit(POP);
+
+        for (int jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emit(RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = current.loop;
+        if (loop == null) throw new IllegalStateException("Break outside a loop.");
+
+        // Discard the locals declared inside the loop body without
+        // forgetting them, since compilation of the body continues.
+        int discarded = 0;
+        for (int i = current.locals.size() - 1; i >= 0; i--) {
+            Local local = current.locals.get(i);
+            if (local.depth <= loop.scopeDepth) break;
+            emit(local.isCaptured ? CLOSE_UPVALUE : POP);
+            discarded++;
+        }
+
+        loop.breakJumps.add(emitJump(JUMP));
+        adjustStack(discarded);
+        return null;
+    }
+
+    @Override
+    public Void visitSequenceExpr(Expr.Sequence expr) {
+        if (expr.expressions.isEmpty()) {
+            emit(NIL);
+            return null;
+        }
+
+        for (int i = 0; i < expr.expressions.size(); i++) {
+            if (i > 0) emit(POP);
+            compile(expr.expressions.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+
+        int arg = resolveLocal(current, expr.name.lexeme);
+        if (arg != -1) {
+            emit(SET_LOCAL, arg);
+        } else if ((arg = resolveUpvalue(current, expr.name.lexeme)) != -1) {
+            emit(SET_UPVALUE, arg);
+        } else {
+            emit(SET_GLOBAL, identifierConstant(expr.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(SUBTRACT); break;
+            case SLASH: emit(DIVIDE); break;
+            case ASTERISK: emit(MULTIPLY); break;
+            case PLUS: emit(ADD); break;
+            case GREATER: emit(GREATER); break;
+            case GREATER_EQUAL: emit(GREATER_EQUAL); break;
+            case LESS: emit(LESS); break;
+            case LESS_EQUAL: emit(LESS_EQUAL); break;
+            case BANG_EQUAL: emit(EQUAL); emit(NOT); break;
+            case EQUAL_EQUAL: emit(EQUAL); break;
+            default:
+                // Mirrors the Interpreter, which evaluates unknown operators to nil.
+                emit(POP);
+                emit(POP);
+                emit(NIL);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(NIL);
+        } else if (expr.value == Boolean.TRUE) {
+            emit(TRUE);
+        } else if (expr.value == Boolean.FALSE) {
+            emit(FALSE);
+        } else {
+            emit(CONSTANT, current.function.chunk.addConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(JUMP_IF_FALSE);
+            int endJump = emitJump(JUMP);
+
+            patchJump(elseJump);
+            emit(POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(JUMP_IF_FALSE);
+            emit(POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(NEGATE); break;
+            case BANG: emit(NOT); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            compile(get.object);
+            compileArgs(expr.args);
+            line = expr.paren.line;
+            emit(INVOKE, identifierConstant(get.name), expr.args.size());
+            adjustStack(-expr.args.size());
+            return null;
+        }
+
+        if (expr.callee instanceof Expr.Super sup) {
+            line = sup.keyword.line;
+            namedVariable("this");
+            compileArgs(expr.args);
+            namedVariable("super");
+            line = sup.method.line;
+            emit(SUPER_INVOKE, identifierConstant(sup.method), expr.args.size());
+            adjustStack(-expr.args.size() - 1);
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArgs(expr.args);
+        line = expr.paren.line;
+        emit(CALL, expr.args.size());
+        adjustStack(-expr.args.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(GET_PROPERTY, identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emit(SET_PROPERTY, identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        namedVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        namedVariable("this");
+        namedVariable("super");
+        line = expr.method.line;
+        emit(GET_SUPER, identifierConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitFunExpr(Expr.Fun expr) {
+        function(expr, null, FunctionType.FUNCTION);
+        return null;
+    }
+
+    private void function(Expr.Fun declaration, String name, FunctionType type) {
+        FunctionState state = new FunctionState(current, new Obj.Function(name, source), type);
+        current = state;
+        state.function.arity = declaration.parameters.size();
+
+        beginScope();
+        for (Token param : declaration.parameters) {
+            addLocal(param.lexeme);
+            markInitialized();
+            adjustStack(1);
+        }
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+
+        Obj.Function function = endFunction();
+
+        emit(CLOSURE, current.function.chunk.addConstant(function));
+        for (UpvalueRef upvalue : state.upvalues) {
+            emitOperand(upvalue.isLocal ? 1 : 0);
+            emitOperand(upvalue.index);
+        }
+        adjustStack(1);
+    }
+
+    private Obj.Function endFunction() {
+        emitReturn();
+        Obj.Function function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.seal();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void compileArgs(List<Expr> args) {
+        for (Expr arg : args) {
+            compile(arg);
+        }
+    }
+
+    private void namedVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(GET_LOCAL, arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(GET_UPVALUE, arg);
+        } else {
+            emit(GET_GLOBAL, current.function.chunk.addConstant(name));
+        }
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            UpvalueRef upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        state.upvalues.add(new UpvalueRef(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private void declareVariable(String name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name);
+    }
+
+    private void defineVariable(int nameConstant) {
+        if (current.scopeDepth > 0) {
+            // The value already sits in the local's stack slot.
+            markInitialized();
+            return;
+        }
+        emit(DEFINE_GLOBAL, nameConstant);
+    }
+
+    private void addLocal(String name) {
+        current.locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        int last = current.locals.size() - 1;
+        Local local = current.locals.get(last);
+        current.locals.set(last, new Local(local.name, current.scopeDepth));
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.get(locals.size() - 1).isCaptured ? CLOSE_UPVALUE : POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private int identifierConstant(Token name) {
+        return current.function.chunk.addConstant(name.lexeme);
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(GET_LOCAL, 0);
+        } else {
+            emit(NIL);
+        }
+        emit(RETURN);
+    }
+
+    private int emitJump(int op) {
+        emit(op, 0);
+        return current.function.chunk.count - 1;
+    }
+
+    private void patchJump(int operand) {
+        Chunk chunk = current.function.chunk;
+        chunk.code[operand] = chunk.count;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(LOOP, loopStart);
+    }
+
+    private void emit(int op) {
+        current.function.chunk.write(op, line);
+        adjustStack(STACK_EFFECT[op]);
+    }
+
+    private void emit(int op, int operand) {
+        emit(op);
+        emitOperand(operand);
+    }
+
+    private void emit(int op, int operand1, int operand2) {
+        emit(op);
+        emitOperand(operand1);
+        emitOperand(operand2);
+    }
+
+    private void emitOperand(int operand) {
+        current.function.chunk.write(operand, line);
+    }
+
+    private void adjustStack(int delta) {
+        current.stackDepth += delta;
+        if (current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+}
@@ -0,0 +1,28 @@
+package org.something.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A call of a Lox function that took longer than the threshold. A tail
+ * call ends the call that made it, so each one is an event of its own.
+ * The Java stack would only show the interpreter, so none is recorded.
+ */
+@Name("org.something.lox.Call")
+@Label("Lox Call")
+@Category("Lox")
+@Description("A call of a Lox function")
+@StackTrace(false)
+@Threshold("1 ms")
+final class CallEvent extends jdk.jfr.Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    @Description("Line the function is declared on")
+    int line;
+}
@@ -0,0 +1,175 @@
+package org.something.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts calls and measures time and allocation per Lox function, class
+ * and native, for --profile. Every call is timed, so the overhead lands
+ * hardest on small hot functions; {@link SamplingProfiler} distorts less.
+ *
+ * Calls are tracked on a shadow stack. A function's self time and bytes
+ * leave out what its callees used; its total time counts a recursive
+ * function once, from its outermost call. Times include some of the
+ * profiler's own overhead, which falls on the caller.
+ */
+final class CallProfiler extends Profiler {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    static final class Entry {
+        final String name;
+        final int line;
+        long calls = 0;
+        long totalNanos = 0;
+        long selfNanos = 0;
+        long selfBytes = 0;
+        // Calls of this entry currently on the stack.
+        private int active = 0;
+
+        Entry(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    // Entries by function declaration, class or native. Closures made from
+    // one declaration, and classes declared more than once, share an entry
+    // by name and line.
+    private final Map<Object, Entry> entries = new IdentityHashMap<>();
+    private final Map<String, Entry> byLabel = new HashMap<>();
+
+    private Entry[] stack = new Entry[64];
+    private long[] startNanos = new long[64];
+    private long[] startBytes = new long[64];
+    private long[] calleeNanos = new long[64];
+    private long[] calleeBytes = new long[64];
+    private int depth = 0;
+
+    // Where the JSON report goes, if anywhere.
+    private final Path jsonPath;
+
+    CallProfiler(Path jsonPath) {
+        this.jsonPath = jsonPath;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    @Override
+    void enter(Object key, String name, int line) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = byLabel.computeIfAbsent(name + ":" + line, label -> new Entry(name, line));
+            entries.put(key, entry);
+        }
+
+        if (depth == stack.length) {
+            int capacity = depth * 2;
+            stack = Arrays.copyOf(stack, capacity);
+            startNanos = Arrays.copyOf(startNanos, capacity);
+            startBytes = Arrays.copyOf(startBytes, capacity);
+            calleeNanos = Arrays.copyOf(calleeNanos, capacity);
+            calleeBytes = Arrays.copyOf(calleeBytes, capacity);
+        }
+        entry.calls++;
+        entry.active++;
+        stack[depth] = entry;
+        calleeNanos[depth] = 0;
+        calleeBytes[depth] = 0;
+        startBytes[depth] = allocatedBytes();
+        startNanos[depth] = System.nanoTime();
+        depth++;
+    }
+
+    @Override
+    void exit() {
+        long now = System.nanoTime();
+        long bytes = allocatedBytes();
+
+        depth--;
+        Entry entry = stack[depth];
+        stack[depth] = null;
+        long elapsed = now - startNanos[depth];
+        long allocated = bytes - startBytes[depth];
+        entry.selfNanos += elapsed - calleeNanos[depth];
+        entry.selfBytes += allocated - calleeBytes[depth];
+        if (--entry.active == 0) entry.totalNanos += elapsed;
+
+        if (depth > 0) {
+            calleeNanos[depth - 1] += elapsed;
+            calleeBytes[depth - 1] += allocated;
+        }
+    }
+
+    @Override
+    void unwind() {
+        while (depth > 0) exit();
+    }
+
+    // Prints the report, and writes it as JSON if a file was given.
+    @Override
+    void finish() throws IOException {
+        printReport(System.err);
+        if (jsonPath != null) writeJson(jsonPath);
+    }
+
+    // Slowest first, by self time.
+    List<Entry> entries() {
+        List<Entry> sorted = new ArrayList<>(byLabel.values());
+        sorted.sort(Comparator.comparingLong((Entry entry) -> entry.selfNanos).reversed()
+                .thenComparing(entry -> entry.name));
+        return sorted;
+    }
+
+    void printReport(PrintStream out) {
+        out.printf("%10s %12s %12s %14s  %s%n", "calls", "total ms", "self ms", "self bytes", "function");
+        for (Entry entry : entries()) {
+            out.printf("%10d %12.3f %12.3f %14d  %s%n", entry.calls, entry.totalNanos / 1e6,
+                    entry.selfNanos / 1e6, entry.selfBytes, label(entry));
+        }
+    }
+
+    void writeJson(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("{\"functions\": [");
+            String separator = "\n";
+            for (Entry entry : entries()) {
+                // Names are identifiers or fixed placeholders; none need escaping.
+                out.write(separator + "  {\"name\": \"" + entry.name + "\", \"line\": " + entry.line
+                        + ", \"calls\": " + entry.calls
+                        + ", \"totalNanos\": " + entry.totalNanos
+                        + ", \"selfNanos\": " + entry.selfNanos
+                        + ", \"selfBytes\": " + entry.selfBytes + "}");
+                separator = ",\n";
+            }
+            out.write("\n]}\n");
+        }
+    }
+
+    private static String label(Entry entry) {
+        if (entry.line == 0) return entry.name + " (native)";
+        return entry.name + " (line " + entry.line + ")";
+    }
+}
@@ -0,0 +1,46 @@
+package org.something.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Chunk {
+    int[] code = new int[16];
+    int[] lines = new int[16];
+    int count = 0;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    Object[] constants = new Object[0];
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        if (value instanceof Obj.Function) {
+            constantList.add(value);
+            return constantList.size() - 1;
+        }
+
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+
+        constantList.add(value);
+        constantIndex.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
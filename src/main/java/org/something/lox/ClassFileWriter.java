@@ -0,0 +1,406 @@
+package org.something.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class file writer for the {@link Jit}: a constant
+ * pool, fields, and methods made of raw bytecode. It writes version 49
+ * class files, which the verifier checks by type inference, so branches
+ * need no stack map frames.
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // The opcodes the Jit uses.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+
+    private static final int VERSION = 49;
+    private static final int MAX_BRANCH = Short.MAX_VALUE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    void addInterface(String internalName) {
+        interfaces.add(internalName);
+    }
+
+    void addField(int access, String fieldName, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(fieldName));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    Code addMethod(int access, String methodName, String descriptor) {
+        return new Code(access, methodName, descriptor);
+    }
+
+    byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int[] interfaceRefs = new int[interfaces.size()];
+        for (int i = 0; i < interfaceRefs.length; i++) {
+            interfaceRefs[i] = classRef(interfaces.get(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (int ref : interfaceRefs) out.writeShort(ref);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Constant pool. Entries are shared by key, like the constants of a Chunk.
+
+    private int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        });
+    }
+
+    private int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return constant("C" + internalName, out -> {
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(memberName);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + memberName + ":" + descriptor, out -> {
+            out.writeByte(CONSTANT_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant(tag + owner + "." + memberName + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, Entry entry) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        try {
+            entry.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /**
+     * A branch target. Forward branches are patched once it is placed.
+     */
+    static final class Label {
+        private int offset = -1;
+        private int stack = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    /**
+     * The bytecode of one method. Tracks the operand stack depth as
+     * instructions are added, so max_stack comes out right.
+     */
+    final class Code {
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private byte[] code = new byte[64];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private Code(int access, String methodName, String descriptor) {
+            this.access = access;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            this.maxLocals = ((access & ACC_STATIC) == 0 ? 1 : 0) + argumentSlots(descriptor);
+        }
+
+        void op(int opcode) {
+            emit(opcode);
+            switch (opcode) {
+                case ACONST_NULL:
+                case DUP:
+                    adjustStack(1);
+                    break;
+                case DUP2:
+                    adjustStack(2);
+                    break;
+                case POP:
+                case ARETURN:
+                    adjustStack(-1);
+                    break;
+                case AALOAD:
+                    adjustStack(-1);
+                    break;
+                case AASTORE:
+                    adjustStack(-3);
+                    break;
+                case RETURN:
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown opcode " + opcode + ".");
+            }
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value);
+            } else {
+                emit(SIPUSH);
+                emitShort(value);
+            }
+            adjustStack(1);
+        }
+
+        void aload(int local) {
+            local(ALOAD, local);
+            adjustStack(1);
+        }
+
+        void astore(int local) {
+            local(ASTORE, local);
+            adjustStack(-1);
+        }
+
+        void type(int opcode, String internalName) {
+            emit(opcode);
+            // Both ANEWARRAY and CHECKCAST replace the value on top of the stack.
+            emitShort(classRef(internalName));
+        }
+
+        void field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+            emit(opcode);
+            emitShort(memberRef(CONSTANT_FIELDREF, owner, fieldName, fieldDescriptor));
+            int size = slotSize(fieldDescriptor.charAt(0));
+            switch (opcode) {
+                case GETSTATIC: adjustStack(size); break;
+                case GETFIELD: adjustStack(size - 1); break;
+                case PUTFIELD: adjustStack(-size - 1); break;
+                default: throw new IllegalArgumentException("Unknown field opcode " + opcode + ".");
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String methodDescriptor) {
+            int arguments = argumentSlots(methodDescriptor);
+            emit(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                emitShort(memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, methodDescriptor));
+                emit(arguments + 1);
+                emit(0);
+            } else {
+                emitShort(memberRef(CONSTANT_METHODREF, owner, name, methodDescriptor));
+            }
+
+            char result = methodDescriptor.charAt(methodDescriptor.indexOf(')') + 1);
+            int receiver = opcode == INVOKESTATIC ? 0 : 1;
+            adjustStack(-arguments - receiver + (result == 'V' ? 0 : slotSize(result)));
+        }
+
+        Label label() {
+            return new Label();
+        }
+
+        void jump(int opcode, Label target) {
+            int at = length;
+            emit(opcode);
+            if (opcode != GOTO) adjustStack(-1);
+            mark(target);
+
+            if (target.offset >= 0) {
+                emitShort(target.offset - at);
+            } else {
+                target.branches.add(at);
+                emitShort(0);
+            }
+            // Nothing falls through an unconditional jump; whatever comes
+            // next is reached through a label.
+            if (opcode == GOTO) stack = 0;
+        }
+
+        void place(Label label) {
+            label.offset = length;
+            mark(label);
+            stack = label.stack;
+            for (int at : label.branches) {
+                patchShort(at + 1, label.offset - at);
+            }
+        }
+
+        // Once a value is returned, the operand stack is empty until the
+        // next label.
+        void returnValue() {
+            op(ARETURN);
+            stack = 0;
+        }
+
+        void end() {
+            if (length > MAX_BRANCH) {
+                throw new IllegalStateException("Method too large.");
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(access);
+                out.writeShort(utf8(methodName));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(bytes.toByteArray());
+        }
+
+        private void mark(Label label) {
+            if (label.stack < 0) label.stack = stack;
+        }
+
+        private void local(int opcode, int local) {
+            if (local > 0xff) throw new IllegalStateException("Too many locals.");
+            emit(opcode);
+            emit(local);
+            maxLocals = Math.max(maxLocals, local + 1);
+        }
+
+        private void adjustStack(int effect) {
+            stack += effect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void emit(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) value;
+        }
+
+        private void emitShort(int value) {
+            emit(value >> 8);
+            emit(value);
+        }
+
+        private void patchShort(int at, int value) {
+            code[at] = (byte) (value >> 8);
+            code[at + 1] = (byte) value;
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            slots += slotSize(c);
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return slots;
+    }
+
+    private static int slotSize(char type) {
+        return type == 'J' || type == 'D' ? 2 : 1;
+    }
+}
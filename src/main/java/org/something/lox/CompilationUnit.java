@@ -0,0 +1,297 @@
+package org.something.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One file of a multi-file program. Compiling a unit scans, parses,
+ * resolves and optimizes it without touching shared state, so units can be
+ * compiled on different threads. Errors are kept with the unit and printed
+ * by the caller in file order.
+ */
+final class CompilationUnit implements ErrorReporter {
+    final Path path;
+    List<Stmt> statements = null;
+    Set<String> declaredGlobals = Set.of();
+    Set<String> usedGlobals = Set.of();
+    // Globals each top-level function and class uses when it runs, by name.
+    Map<String, Set<String>> deferredGlobals = Map.of();
+    private final List<String> errors = new ArrayList<>();
+
+    CompilationUnit(Path path) {
+        this.path = path;
+    }
+
+    void compile(int optimizationLevel) throws IOException {
+        ByteBuffer source;
+        try (FileChannel channel = FileChannel.open(path)) {
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        List<Stmt> program = new Parser(new Scanner(source, this)).parse();
+        if (hadError()) return;
+
+        Resolver resolver = new Resolver(this);
+        resolver.resolve(program);
+        if (hadError()) return;
+
+        statements = new Optimizer(optimizationLevel).optimize(program);
+        declaredGlobals = resolver.declaredGlobals;
+        usedGlobals = resolver.usedGlobals;
+        deferredGlobals = resolver.deferredGlobals;
+    }
+
+    /**
+     * Orders compiled units so that each one runs after the units that
+     * declare the globals it uses while loading, including those used by
+     * the functions and classes it calls then. Otherwise units keep the
+     * order they were given in, and a dependency cycle is broken where it
+     * closes.
+     */
+    static List<CompilationUnit> link(List<CompilationUnit> units) {
+        Map<String, BitSet> declarers = new HashMap<>();
+        for (int i = 0; i < units.size(); i++) {
+            for (String name : units.get(i).declaredGlobals) {
+                declarers.computeIfAbsent(name, n -> new BitSet()).set(i);
+            }
+        }
+
+        List<Set<String>> uses = new ArrayList<>(units.size());
+        for (CompilationUnit unit : units) {
+            uses.add(loadTimeGlobals(unit, units));
+        }
+
+        List<CompilationUnit> ordered = new ArrayList<>(units.size());
+        boolean[] visited = new boolean[units.size()];
+        for (int i = 0; i < units.size(); i++) {
+            visit(i, units, uses, declarers, visited, ordered);
+        }
+        return ordered;
+    }
+
+    // The globals a unit uses while loading, followed through the functions
+    // and classes it uses, in whichever unit declares them.
+    private static Set<String> loadTimeGlobals(CompilationUnit unit, List<CompilationUnit> units) {
+        Set<String> uses = new HashSet<>(unit.usedGlobals);
+        Deque<String> pending = new ArrayDeque<>(uses);
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            for (CompilationUnit other : units) {
+                for (String use : other.deferredGlobals.getOrDefault(name, Set.of())) {
+                    if (uses.add(use)) pending.push(use);
+                }
+            }
+        }
+        return uses;
+    }
+
+    private static void visit(int index, List<CompilationUnit> units, List<Set<String>> uses,
+                              Map<String, BitSet> declarers, boolean[] visited,
+                              List<CompilationUnit> ordered) {
+        if (visited[index]) return;
+        visited[index] = true;
+
+        BitSet dependencies = new BitSet();
+        for (String name : uses.get(index)) {
+            BitSet declaring = declarers.get(name);
+            // A unit that declares the name itself does not wait for others.
+            if (declaring != null && !declaring.get(index)) dependencies.or(declaring);
+        }
+        for (int i = dependencies.nextSetBit(0); i >= 0; i = dependencies.nextSetBit(i + 1)) {
+            visit(i, units, uses, declarers, visited, ordered);
+        }
+
+        ordered.add(units.get(index));
+    }
+
+    /**
+     * Returns the file of the unit whose code holds the token, or null. Only
+     * used to report a runtime error, so it searches the trees instead of
+     * making every token remember its file.
+     */
+    static String sourceOf(List<CompilationUnit> units, Token token) {
+        TokenFinder finder = new TokenFinder(token);
+        for (CompilationUnit unit : units) {
+            if (finder.find(unit.statements)) return unit.path.toString();
+        }
+        return null;
+    }
+
+    private static final class TokenFinder implements Expr.Visitor<Boolean>, Stmt.Visitor<Boolean> {
+        private final Token token;
+
+        TokenFinder(Token token) {
+            this.token = token;
+        }
+
+        boolean find(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                if (find(statement)) return true;
+            }
+            return false;
+        }
+
+        private boolean find(Stmt stmt) {
+            return stmt != null && stmt.accept(this);
+        }
+
+        private boolean find(Expr expr) {
+            return expr != null && expr.accept(this);
+        }
+
+        @Override
+        public Boolean visitSequenceExpr(Expr.Sequence expr) {
+            for (Expr expression : expr.expressions) {
+                if (find(expression)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Boolean visitAssignExpr(Expr.Assign expr) {
+            return expr.name == token || find(expr.value);
+        }
+
+        @Override
+        public Boolean visitBinaryExpr(Expr.Binary expr) {
+            return expr.operator == token || find(expr.left) || find(expr.right);
+        }
+
+        @Override
+        public Boolean visitGroupingExpr(Expr.Grouping expr) {
+            return find(expr.expression);
+        }
+
+        @Override
+        public Boolean visitLiteralExpr(Expr.Literal expr) {
+            return false;
+        }
+
+        @Override
+        public Boolean visitLogicalExpr(Expr.Logical expr) {
+            return expr.operator == token || find(expr.left) || find(expr.right);
+        }
+
+        @Override
+        public Boolean visitUnaryExpr(Expr.Unary expr) {
+            return expr.operator == token || find(expr.right);
+        }
+
+        @Override
+        public Boolean visitVarExpr(Expr.Var expr) {
+            return expr.name == token;
+        }
+
+        @Override
+        public Boolean visitCallExpr(Expr.Call expr) {
+            if (expr.paren == token || find(expr.callee)) return true;
+            for (Expr arg : expr.args) {
+                if (find(arg)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Boolean visitGetExpr(Expr.Get expr) {
+            return expr.name == token || find(expr.object);
+        }
+
+        @Override
+        public Boolean visitSetExpr(Expr.Set expr) {
+            return expr.name == token || find(expr.object) || find(expr.value);
+        }
+
+        @Override
+        public Boolean visitThisExpr(Expr.This expr) {
+            return expr.keyword == token;
+        }
+
+        @Override
+        public Boolean visitSuperExpr(Expr.Super expr) {
+            return expr.keyword == token || expr.method == token;
+        }
+
+        @Override
+        public Boolean visitFunExpr(Expr.Fun expr) {
+            return find(expr.body);
+        }
+
+        @Override
+        public Boolean visitBlockStmt(Stmt.Block stmt) {
+            return find(stmt.statements);
+        }
+
+        @Override
+        public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+            return find(stmt.expression);
+        }
+
+        @Override
+        public Boolean visitClassStmt(Stmt.Class stmt) {
+            if (stmt.name == token || find(stmt.superclass)) return true;
+            for (Stmt.Fun method : stmt.methods) {
+                if (find(method)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Boolean visitFunStmt(Stmt.Fun stmt) {
+            return stmt.name == token || find(stmt.function);
+        }
+
+        @Override
+        public Boolean visitIfStmt(Stmt.If stmt) {
+            return find(stmt.condition) || find(stmt.thenBranch) || find(stmt.elseBranch);
+        }
+
+        @Override
+        public Boolean visitPrintStmt(Stmt.Print stmt) {
+            return find(stmt.expression);
+        }
+
+        @Override
+        public Boolean visitVarStmt(Stmt.Var stmt) {
+            return stmt.name == token || find(stmt.initializer);
+        }
+
+        @Override
+        public Boolean visitWhileStmt(Stmt.While stmt) {
+            return find(stmt.condition) || find(stmt.body);
+        }
+
+        @Override
+        public Boolean visitReturnStmt(Stmt.Return stmt) {
+            return stmt.keyword == token || find(stmt.value);
+        }
+
+        @Override
+        public Boolean visitBreakStmt(Stmt.Break stmt) {
+            return false;
+        }
+    }
+
+    boolean hadError() {
+        return !errors.isEmpty();
+    }
+
+    List<String> errors() {
+        return errors;
+    }
+
+    @Override
+    public void report(int line, String where, String message) {
+        errors.add("[" + path + " line " + line + "] Error" + where + ": " + message);
+    }
+}
@@ -0,0 +1,13 @@
+package org.something.lox;
+
+import java.util.List;
+
+/**
+ * The body of a Lox function compiled to JVM bytecode by the {@link Jit}.
+ * Takes the place of {@link Interpreter#executeBlock} for the function's
+ * declaration: it returns the function's result, or a {@link TailCall}.
+ */
+interface CompiledFunction {
+    Object invoke(Interpreter interpreter, Environment closure, LoxInstance receiver,
+                  List<Object> args);
+}
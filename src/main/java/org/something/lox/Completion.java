@@ -0,0 +1,12 @@
+package org.something.lox;
+
+/**
+ * How a statement finished executing. The interpreter passes these back up
+ * the tree instead of unwinding with exceptions; a RETURN leaves its value
+ * with the interpreter for the enclosing call to pick up.
+ */
+enum Completion {
+    NORMAL,
+    RETURN,
+    BREAK
+}
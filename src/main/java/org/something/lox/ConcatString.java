@@ -0,0 +1,82 @@
+package org.something.lox;
+
+/**
+ * A long string made by +, kept in a StringBuilder until something needs
+ * it as a String. Adding to the newest string made from a builder extends
+ * that builder in place, so a loop that keeps adding to one string does
+ * linear work overall instead of copying the whole string every time.
+ * Older strings from the same builder still see only their own prefix.
+ *
+ * Short results stay plain Strings. A builder belongs to the runtime that
+ * made it; literals and values handed to Java are flattened first.
+ */
+final class ConcatString {
+    // Results shorter than this are concatenated as plain Strings.
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat = null;
+
+    private ConcatString(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    static boolean canConcat(Object left, Object right) {
+        if (Interpreter.isString(left)) return Interpreter.isString(right) || right instanceof Double;
+        return left instanceof Double && Interpreter.isString(right);
+    }
+
+    // Joins two operands that passed canConcat.
+    static Object concat(Object left, Object right) {
+        if (left instanceof ConcatString string) return string.append(right);
+
+        String l = left instanceof Double number ? Interpreter.formatNumber(number) : (String) left;
+        Object r = right instanceof Double number ? Interpreter.formatNumber(number) : right;
+        if (r instanceof String s && l.length() + s.length() < MIN_LENGTH) return l.concat(s);
+
+        StringBuilder builder = new StringBuilder(l.length() + MIN_LENGTH).append(l);
+        return new ConcatString(append(builder, r));
+    }
+
+    private ConcatString append(Object right) {
+        StringBuilder target = builder;
+        // A newer string already extended the builder; copy this prefix.
+        // Such a copy is usually a shared prefix added to once, so it gets
+        // no room to spare; it still grows if it is added to again.
+        if (builder.length() != length) {
+            target = new StringBuilder(length + lengthOf(right)).append(builder, 0, length);
+        }
+        return new ConcatString(append(target, right));
+    }
+
+    // Room for a number is a guess; most numbers print shorter than this.
+    private static int lengthOf(Object value) {
+        if (value instanceof Double) return 24;
+        if (value instanceof ConcatString string) return string.length;
+        return ((String) value).length();
+    }
+
+    private static StringBuilder append(StringBuilder builder, Object value) {
+        if (value instanceof Double number) {
+            Interpreter.appendNumber(builder, number);
+        } else if (value instanceof ConcatString string) {
+            builder.append(string.builder, 0, string.length);
+        } else {
+            builder.append((String) value);
+        }
+        return builder;
+    }
+
+    // Flattened copies of values that leave the runtime, such as literals.
+    static Object flatten(Object value) {
+        return value instanceof ConcatString ? value.toString() : value;
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flat = builder.substring(0, length);
+        return flat;
+    }
+}
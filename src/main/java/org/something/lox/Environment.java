@@ -5,33 +5,80 @@ import java.util.Map;
 
 class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Locals live in slots assigned by the Resolver, in declaration order.
+    private final Object[] slots;
+    // Unboxed numbers, for slots tagged NUMBER. Allocated on first use.
+    private double[] numbers = null;
+    private int count = 0;
+    private static final Object NUMBER = new Object();
+    // Only the global environment is keyed by name.
+    private final Map<String, Object> values;
 
     Environment() {
-        enclosing = null;
+        this(new HashMap<>(), null);
     }
 
-    Environment(Environment enclosing) {
+    /**
+     * A global environment over a map the embedder owns, such as Bindings.
+     * Names the map lacks are read from the enclosing environment, which
+     * is never written: assigning one defines it here instead.
+     */
+    Environment(Map<String, Object> values, Environment enclosing) {
         this.enclosing = enclosing;
+        this.slots = null;
+        this.values = values;
+    }
+
+    Environment(Environment enclosing, int size) {
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
+        this.values = null;
     }
 
     void define(String name, Object value) {
         values.put(name, value);
     }
 
+    void define(Object value) {
+        slots[count++] = value;
+    }
+
+    // Empties a frame for reuse. Slots are overwritten as they are defined again.
+    void reset() {
+        count = 0;
+    }
+
+    void defineNumber(double value) {
+        storeNumber(count++, value);
+    }
+
     Object get(Token name) {
         if (values.containsKey(name.lexeme)) {
             return values.get(name.lexeme);
         }
-
         if (enclosing != null) return enclosing.get(name);
 
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value == NUMBER) {
+            // Box once; later generic reads reuse the same object.
+            value = environment.numbers[slot];
+            environment.slots[slot] = value;
+        }
+        return value;
+    }
+
+    double getNumberAt(int distance, int slot) {
+        Environment environment = ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value == NUMBER) return environment.numbers[slot];
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
     }
 
     Environment ancestor(int distance) {
@@ -44,21 +91,30 @@ class Environment {
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
+        if (isDefined(name.lexeme)) {
             values.put(name.lexeme, value);
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
         throw new RuntimeError(name,
                 "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    boolean isDefined(String name) {
+        return values.containsKey(name) || (enclosing != null && enclosing.isDefined(name));
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
+    }
+
+    void assignNumberAt(int distance, int slot, double value) {
+        ancestor(distance).storeNumber(slot, value);
+    }
+
+    private void storeNumber(int slot, double value) {
+        if (numbers == null) numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = NUMBER;
     }
-}
\ No newline at end of file
+}
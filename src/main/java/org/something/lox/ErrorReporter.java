@@ -0,0 +1,26 @@
+package org.something.lox;
+
+/**
+ * Receives the compile errors found by the Scanner, Parser and Resolver.
+ * Running a single source prints them as they come; compiling several
+ * files at once gives each file a reporter of its own.
+ */
+interface ErrorReporter {
+    void report(int line, String where, String message);
+
+    static String format(int line, String where, String message) {
+        return "[line " + line + "] Error" + where + ": " + message;
+    }
+
+    default void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    default void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+}
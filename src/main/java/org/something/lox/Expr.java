@@ -44,6 +44,8 @@ abstract class Expr{
 
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot = -1;
     }
     static class Binary extends Expr {
         Binary (Expr left, Token operator, Expr right) {
@@ -60,6 +62,7 @@ abstract class Expr{
         final Expr left;
         final Token operator;
         final Expr right;
+        Specialization specialization = Specialization.UNINITIALIZED;
     }
     static class Grouping extends Expr {
         Grouping (Expr expression) {
@@ -100,6 +103,7 @@ abstract class Expr{
         final Expr left;
         final Token operator;
         final Expr right;
+        Specialization specialization = Specialization.UNINITIALIZED;
     }
     static class Unary extends Expr {
         Unary (Token operator, Expr right) {
@@ -114,6 +118,7 @@ abstract class Expr{
 
         final Token operator;
         final Expr right;
+        Specialization specialization = Specialization.UNINITIALIZED;
     }
     static class Var extends Expr {
         Var (Token name) {
@@ -126,6 +131,9 @@ abstract class Expr{
         }
 
         final Token name;
+        int depth = -1;
+        int slot = -1;
+        Stmt.Var declaration;
     }
     static class Call extends Expr {
         Call (Expr callee, Token paren, List<Expr> args) {
@@ -156,6 +164,7 @@ abstract class Expr{
 
         final Expr object;
         final Token name;
+        int site = InlineCache.newSite();
     }
     static class Set extends Expr {
         Set (Expr object, Token name, Expr value) {
@@ -172,6 +181,7 @@ abstract class Expr{
         final Expr object;
         final Token name;
         final Expr value;
+        int site = InlineCache.newSite();
     }
     static class This extends Expr {
         This (Token keyword) {
@@ -184,6 +194,8 @@ abstract class Expr{
         }
 
         final Token keyword;
+        int depth = -1;
+        int slot = -1;
     }
     static class Super extends Expr {
         Super (Token keyword, Token method) {
@@ -198,6 +210,7 @@ abstract class Expr{
 
         final Token keyword;
         final Token method;
+        int depth = -1;
     }
     static class Fun extends Expr {
         Fun (List<Token> parameters, List<Stmt> body) {
@@ -212,6 +225,11 @@ abstract class Expr{
 
         final List<Token> parameters;
         final List<Stmt> body;
+        int slots = 0;
+        boolean captured = false;
+        int line = 0;
+        int calls = 0;
+        CompiledFunction compiled;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
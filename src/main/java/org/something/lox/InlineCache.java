@@ -0,0 +1,116 @@
+package org.something.lox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable entry of a property inline cache for an {@code Expr.Get} or
+ * {@code Expr.Set} site. Entries chain into a polymorphic cache; a site
+ * gains an entry by swapping in a new head, never by mutating one.
+ *
+ * Entries hold shapes and methods of one runtime, so they are kept in that
+ * runtime's {@link Table}, not on the nodes, which isolates share.
+ */
+final class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private static final AtomicInteger lastSite = new AtomicInteger();
+
+    // Installed once a site has seen too many shapes to be worth caching.
+    // Such a site looks properties up on the shape without making entries.
+    static final InlineCache MEGAMORPHIC = new InlineCache(null, -1, null, null, null);
+
+    final Shape shape;
+    // Field slot, or -1 when the property resolves to a method.
+    final int index;
+    final LoxFunction method;
+    // Shape after a store; the same as shape unless the store adds a field.
+    final Shape transition;
+    final InlineCache next;
+    private final int length;
+
+    private InlineCache(Shape shape, int index, LoxFunction method, Shape transition,
+                        InlineCache next) {
+        this.shape = shape;
+        this.index = index;
+        this.method = method;
+        this.transition = transition;
+        this.next = next;
+        this.length = next == null ? 1 : next.length + 1;
+    }
+
+    // The factories link the new entry in front of head when there is room;
+    // install() then tells the site which chain to keep.
+    static InlineCache field(InlineCache head, Shape shape, int index) {
+        return new InlineCache(shape, index, null, shape, linkable(head));
+    }
+
+    static InlineCache method(InlineCache head, Shape shape, LoxFunction method) {
+        return new InlineCache(shape, -1, method, shape, linkable(head));
+    }
+
+    static InlineCache store(InlineCache head, Shape shape, int index, Shape transition) {
+        return new InlineCache(shape, index, null, transition, linkable(head));
+    }
+
+    static InlineCache install(InlineCache head, InlineCache entry) {
+        return entry.next == head ? entry : MEGAMORPHIC;
+    }
+
+    private static InlineCache linkable(InlineCache head) {
+        if (head == MEGAMORPHIC || (head != null && head.length >= MAX_ENTRIES)) return null;
+        return head;
+    }
+
+    // Numbers a new Get or Set node. Site 0 is never handed out.
+    static int newSite() {
+        return lastSite.incrementAndGet();
+    }
+
+    /**
+     * The cache heads of one runtime, by site. Open addressing keeps a
+     * lookup to a few array reads, and the table only grows with the
+     * sites the runtime has run, not with every node ever parsed.
+     */
+    static final class Table {
+        private int[] sites = new int[64];
+        private InlineCache[] heads = new InlineCache[64];
+        private int size = 0;
+
+        InlineCache get(int site) {
+            int mask = sites.length - 1;
+            for (int i = site & mask; ; i = (i + 1) & mask) {
+                if (sites[i] == site) return heads[i];
+                if (sites[i] == 0) return null;
+            }
+        }
+
+        void put(int site, InlineCache head) {
+            int mask = sites.length - 1;
+            int i = site & mask;
+            while (sites[i] != site && sites[i] != 0) i = (i + 1) & mask;
+
+            if (sites[i] == 0) {
+                // Keep at least half the slots free so probes stay short.
+                if ((size + 1) * 2 > sites.length) {
+                    grow();
+                    put(site, head);
+                    return;
+                }
+                sites[i] = site;
+                size++;
+            }
+            heads[i] = head;
+        }
+
+        private void grow() {
+            int[] oldSites = sites;
+            InlineCache[] oldHeads = heads;
+            sites = new int[oldSites.length * 2];
+            heads = new InlineCache[oldSites.length * 2];
+            size = 0;
+            for (int i = 0; i < oldSites.length; i++) {
+                if (oldSites[i] != 0) put(oldSites[i], oldHeads[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.something.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A call of a Lox class that took longer than the threshold, including
+ * its initializer.
+ */
+@Name("org.something.lox.Instantiation")
+@Label("Lox Instantiation")
+@Category("Lox")
+@Description("A Lox class called to make an instance")
+@StackTrace(false)
+@Threshold("1 ms")
+final class InstantiationEvent extends jdk.jfr.Event {
+    @Label("Class")
+    String loxClass;
+
+    @Label("Line")
+    @Description("Line the class is declared on")
+    int line;
+}
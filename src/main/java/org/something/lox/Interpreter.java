@@ -1,20 +1,19 @@
 package org.something.lox;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    // Built-in functions. They sit under the globals of every interpreter,
+    // so a program or an embedder can shadow one without changing it.
+    static final Environment NATIVES = new Environment();
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    private static class BreakException extends RuntimeException {}
-
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
+    static {
+        NATIVES.define("clock", new LoxCallable() {
             @Override
             public Object call(Interpreter interpreter, List<Object> args) {
                 return (double) System.currentTimeMillis() / 1000.0;
@@ -23,46 +22,132 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public int arity() { return 0; }
 
+            @Override
+            public String name() { return "clock"; }
+
             @Override
             public String toString() { return "<native fn>"; }
         });
     }
 
+    final Environment globals;
+    // Where print statements and runtime errors go.
+    final PrintStream out;
+    private final PrintStream err;
+    boolean hadRuntimeError = false;
+    // Set by --profile; null otherwise.
+    Profiler profiler = null;
+    // Property inline caches of this runtime, by Get and Set site.
+    final InlineCache.Table caches = new InlineCache.Table();
+    // Names the file a runtime error's token came from, when the program
+    // is made of several files; null otherwise.
+    Function<Token, String> sources = null;
+    // Lets Binary, Unary and Logical nodes specialize on observed types.
+    boolean specialize = true;
+    // Calls after which a function is compiled to JVM bytecode; 0 turns the
+    // Jit off.
+    int jitThreshold = 1000;
+    private Environment environment;
+    // Value of the last RETURN completion, until its call takes it.
+    private Object returnValue = null;
+
+    Interpreter() {
+        this(System.out, System.err);
+    }
+
+    Interpreter(PrintStream out, PrintStream err) {
+        this(out, err, new HashMap<>());
+    }
+
+    // Globals are read and written straight through the given map.
+    Interpreter(PrintStream out, PrintStream err, Map<String, Object> globals) {
+        this(out, err, globals, NATIVES);
+    }
+
+    // Names missing from globals are read from outer, which should end in
+    // NATIVES. Nothing is written to it.
+    Interpreter(PrintStream out, PrintStream err, Map<String, Object> globals, Environment outer) {
+        this.out = out;
+        this.err = err;
+        this.globals = new Environment(globals, outer);
+        this.environment = this.globals;
+    }
+
     void interpret(List<Stmt> program) {
         try {
             for(Stmt statement : program) {
                 if (statement instanceof Stmt.Expression) {
                     Object value = evaluate(((Stmt.Expression) statement).expression);
-                    System.out.println(stringify(value));
+                    out.println(stringify(value));
                 } else {
                     execute(statement);
                 }
             }
         } catch (RuntimeError e) {
-            Lox.runtimeError(e);
+            if (profiler != null) profiler.unwind();
+            if (sources != null && e.token != null) e.source = sources.apply(e.token);
+            RuntimeErrorEvent.emit(e);
+            err.println(e.report());
+            hadRuntimeError = true;
         }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    /**
+     * Runs a program for an embedder. Returns the value of the last
+     * statement if it is an expression, and nil otherwise. Runtime errors
+     * are thrown to the caller instead of being reported.
+     */
+    Object run(List<Stmt> program) {
+        Object value = null;
+        for (Stmt statement : program) {
+            if (statement instanceof Stmt.Expression expression) {
+                value = evaluate(expression.expression);
+            } else {
+                execute(statement);
+                value = null;
+            }
+        }
+        return value;
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    private String stringify(Object object) {
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    static String stringify(Object object) {
         if (object == null) return "nil";
+        if (object instanceof Double number) return formatNumber(number);
+        return object.toString();
+    }
 
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+    // Integers print without a fraction; everything else as Double.toString
+    // does. That writes plain digits only below 10^7, so an integer in that
+    // range is exactly the digits of its long value.
+    private static boolean isPlainInteger(double value) {
+        return value == (long) value && Math.abs(value) < 1e7;
+    }
 
-        return object.toString();
+    static String formatNumber(double value) {
+        if (!isPlainInteger(value)) return Double.toString(value);
+        if (value == 0 && Double.doubleToRawLongBits(value) != 0) return "-0";
+        return Long.toString((long) value);
+    }
+
+    // Formats into the builder without making a String first.
+    static void appendNumber(StringBuilder builder, double value) {
+        if (!isPlainInteger(value)) {
+            builder.append(value);
+        } else if (value == 0 && Double.doubleToRawLongBits(value) != 0) {
+            builder.append("-0");
+        } else {
+            builder.append((long) value);
+        }
     }
 
     @Override
@@ -80,9 +165,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer disance = locals.get(expr);
-        if (disance != null) {
-            environment.assignAt(disance, expr.name, value);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -92,49 +176,190 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (specialize) {
+            switch (expr.specialization) {
+                case NUMBER_ADD:
+                case NUMBER_SUBTRACT:
+                case NUMBER_MULTIPLY:
+                case NUMBER_DIVIDE:
+                    try {
+                        return binaryNumber(expr);
+                    } catch (UnexpectedResult e) {
+                        return e.value;
+                    }
+                case NUMBER_GREATER:
+                case NUMBER_GREATER_EQUAL:
+                case NUMBER_LESS:
+                case NUMBER_LESS_EQUAL:
+                case NUMBER_EQUAL:
+                case NUMBER_NOT_EQUAL:
+                    try {
+                        return compareNumbers(expr);
+                    } catch (UnexpectedResult e) {
+                        return e.value;
+                    }
+            }
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        if (!specialize) return binary(expr.operator, left, right);
+
+        switch (expr.specialization) {
+            case STRING_CONCAT:
+                if (isString(left) && isString(right)) return ConcatString.concat(left, right);
+                break;
+            case GENERIC:
+                return binary(expr.operator, left, right);
+        }
+
+        expr.specialization = expr.specialization == Specialization.UNINITIALIZED
+                ? Specialization.forBinary(expr.operator.type, left, right)
+                : Specialization.GENERIC;
+        return binary(expr.operator, left, right);
+    }
+
+    // Evaluates a number-specialized node without boxing its operands or
+    // result. When an operand is not a number, the node deoptimizes and
+    // the generic result is thrown as an UnexpectedResult.
+    private double binaryNumber(Expr.Binary expr) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult e) {
+            return deoptimize(expr, e.value, evaluate(expr.right));
+        }
+
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult e) {
+            return deoptimize(expr, left, e.value);
+        }
+
+        switch (expr.specialization) {
+            case NUMBER_ADD: return left + right;
+            case NUMBER_SUBTRACT: return left - right;
+            case NUMBER_MULTIPLY: return left * right;
+            case NUMBER_DIVIDE:
+                if (Double.doubleToRawLongBits(right) == 0L) {
+                    throw new RuntimeError(expr.operator, "Division by 0 not computable.");
+                }
+                return left / right;
+            default:
+                // Another evaluation deoptimized this node meanwhile.
+                return expectNumber(binary(expr.operator, left, right));
+        }
+    }
+
+    private boolean compareNumbers(Expr.Binary expr) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedResult e) {
+            throw new UnexpectedResult(deoptimizeToObject(expr, e.value, evaluate(expr.right)));
+        }
+
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedResult e) {
+            throw new UnexpectedResult(deoptimizeToObject(expr, left, e.value));
+        }
+
+        switch (expr.specialization) {
+            case NUMBER_GREATER: return left > right;
+            case NUMBER_GREATER_EQUAL: return left >= right;
+            case NUMBER_LESS: return left < right;
+            case NUMBER_LESS_EQUAL: return left <= right;
+            case NUMBER_EQUAL: return Double.compare(left, right) == 0;
+            case NUMBER_NOT_EQUAL: return Double.compare(left, right) != 0;
+            default:
+                return (boolean) binary(expr.operator, left, right);
+        }
+    }
+
+    private double deoptimize(Expr.Binary expr, Object left, Object right) {
+        return expectNumber(deoptimizeToObject(expr, left, right));
+    }
+
+    private Object deoptimizeToObject(Expr.Binary expr, Object left, Object right) {
+        expr.specialization = Specialization.GENERIC;
+        return binary(expr.operator, left, right);
+    }
+
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary binary && binary.specialization.producesNumber()) {
+            return binaryNumber(binary);
+        }
+        if (expr instanceof Expr.Var var && var.depth != -1) {
+            return environment.getNumberAt(var.depth, var.slot);
+        }
+        if (expr instanceof Expr.Literal literal && literal.value instanceof Double number) {
+            return number;
+        }
+        if (expr instanceof Expr.Unary unary && unary.specialization == Specialization.NUMBER_NEGATE) {
+            try {
+                return -evaluateNumber(unary.right);
+            } catch (UnexpectedResult e) {
+                unary.specialization = Specialization.GENERIC;
+                return expectNumber(unary(unary.operator, e.value));
+            }
+        }
+        return expectNumber(evaluate(expr));
+    }
+
+    private double expectNumber(Object value) {
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResult(value);
+    }
+
+    private boolean producesNumber(Expr expr) {
+        if (!specialize) return false;
+        if (expr instanceof Expr.Binary binary) return binary.specialization.producesNumber();
+        if (expr instanceof Expr.Unary unary) return unary.specialization.producesNumber();
+        return false;
+    }
+
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             case SLASH:
                 if (right.equals((double) 0)) {
-                    throw new RuntimeError(expr.operator, "Division by 0 not computable.");
+                    throw new RuntimeError(operator, "Division by 0 not computable.");
                 }
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left / (double) right;
             case ASTERISK:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left + (double) right;
                 }
 
-                if (left instanceof String || right instanceof String) {
-                    if (left instanceof Double)
-                        left = String.valueOf(left).replaceAll(".0", "");
-                    if (right instanceof Double)
-                        right = String.valueOf(right).replaceAll(".0", "");
-                    return (String) left + (String) right;
+                // A string can be joined with a string or a number.
+                if (ConcatString.canConcat(left, right)) {
+                    return ConcatString.concat(left, right);
                 }
 
-                throw new RuntimeError(expr.operator,
+                throw new RuntimeError(operator,
                         "Operands must be two numbers or two strings.");
             //TODO implement comparison for types other than numbers
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double) right;
             case BANG_EQUAL:
                 return !isEqual(left, right);
@@ -145,7 +370,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
@@ -164,10 +389,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
 
+        boolean truthy;
+        if (specialize && expr.specialization == Specialization.BOOLEAN_CONDITION
+                && left instanceof Boolean b) {
+            truthy = b;
+        } else {
+            if (specialize) {
+                expr.specialization = expr.specialization == Specialization.UNINITIALIZED
+                        ? Specialization.forLogical(left)
+                        : Specialization.GENERIC;
+            }
+            truthy = isTruthy(left);
+        }
+
         if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
+            if (truthy) return left;
         } else {
-            if (!isTruthy(left)) return left;
+            if (!truthy) return left;
         }
 
         return evaluate(expr.right);
@@ -175,11 +413,37 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (specialize && expr.specialization == Specialization.NUMBER_NEGATE) {
+            try {
+                return -evaluateNumber(expr.right);
+            } catch (UnexpectedResult e) {
+                expr.specialization = Specialization.GENERIC;
+                return unary(expr.operator, e.value);
+            }
+        }
+
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        if (specialize) {
+            switch (expr.specialization) {
+                case BOOLEAN_NOT:
+                    if (right instanceof Boolean r) return !r;
+                    break;
+                case GENERIC:
+                    return unary(expr.operator, right);
+            }
+
+            expr.specialization = expr.specialization == Specialization.UNINITIALIZED
+                    ? Specialization.forUnary(expr.operator.type, right)
+                    : Specialization.GENERIC;
+        }
+        return unary(expr.operator, right);
+    }
+
+    static Object unary(Token operator, Object right) {
+        switch (operator.type) {
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 return -(double) right;
             case BANG:
                 return !isTruthy(right);
@@ -190,47 +454,93 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVarExpr(Expr.Var expr) {
-        return lookupVariable(expr.name, expr);
-    }
-
-    private Object lookupVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+        if (expr.depth != -1) {
+            return environment.getAt(expr.depth, expr.slot);
         } else {
-            return globals.get(name);
+            return globals.get(expr.name);
         }
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(expr, false);
+    }
+
+    // A call in tail position hands a Lox function back as a TailCall for
+    // the trampoline of the function returning it, instead of calling it.
+    private Object call(Expr.Call expr, boolean tail) {
+        // Method calls pass the receiver straight into the frame instead
+        // of binding a new function first.
+        if (expr.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance instance)) {
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
 
-        List<Object> args = new ArrayList<>();
-        for (Expr arg : expr.args) {
-            args.add(evaluate(arg));
+            LoxFunction method = instance.method(get, caches);
+            if (method != null) {
+                return invoke(method, instance, evaluateArgs(expr), expr.paren, tail);
+            }
+            Object callee = instance.get(get, caches);
+            return call(callee, evaluateArgs(expr), expr.paren, tail);
+        }
+
+        if (expr.callee instanceof Expr.Super sup) {
+            LoxFunction method = superMethod(sup);
+            LoxInstance receiver = superReceiver(sup);
+            return invoke(method, receiver, evaluateArgs(expr), expr.paren, tail);
         }
 
+        Object callee = evaluate(expr.callee);
+        return call(callee, evaluateArgs(expr), expr.paren, tail);
+    }
+
+    Object call(Object callee, List<Object> args, Token paren, boolean tail) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
         if (args.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected "
+            throw new RuntimeError(paren, "Expected "
                     + function.arity() + " arguments but got "
                     + args.size() + ".");
         }
 
+        if (tail && function instanceof LoxFunction loxFunction) return loxFunction.tailCall(args);
+        // Functions and classes profile themselves.
+        if (profiler != null && !(function instanceof LoxFunction) && !(function instanceof LoxClass)) {
+            return profiler.callNative(this, function, args);
+        }
         return function.call(this, args);
     }
 
+    Object invoke(LoxFunction method, LoxInstance receiver, List<Object> args, Token paren,
+                  boolean tail) {
+        if (args.size() != method.arity()) {
+            throw new RuntimeError(paren, "Expected "
+                    + method.arity() + " arguments but got "
+                    + args.size() + ".");
+        }
+
+        if (tail) return new TailCall(method, receiver, args);
+        return method.invoke(this, receiver, args);
+    }
+
+    private List<Object> evaluateArgs(Expr.Call expr) {
+        List<Object> args = new ArrayList<>(expr.args.size());
+        for (Expr arg : expr.args) {
+            args.add(evaluate(arg));
+        }
+        return args;
+    }
+
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr, caches);
         }
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
@@ -244,71 +554,92 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        ((LoxInstance)object).set(expr, value, caches);
         return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr.keyword, expr);
+        return environment.getAt(expr.depth, expr.slot);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        return superMethod(expr).bind(superReceiver(expr));
+    }
+
+    private LoxFunction superMethod(Expr.Super expr) {
+        return superMethod((LoxClass) environment.getAt(expr.depth, 0), expr);
+    }
 
+    static LoxFunction superMethod(LoxClass superclass, Expr.Super expr) {
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property `" + expr.method.lexeme + "'.");
         }
+        return method;
+    }
 
-        return method.bind(object);
+    private LoxInstance superReceiver(Expr.Super expr) {
+        // 'this' is the first slot of the method frame just inside 'super'.
+        return (LoxInstance) environment.getAt(expr.depth - 1, 0);
     }
 
     @Override
     public Object visitFunExpr(Expr.Fun expr) {
-        return new LoxFunction(null, expr, environment, false);
+        return new LoxFunction(null, expr, environment, false, false);
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment, stmt.slots));
     }
 
-    public void executeBlock(List<Stmt> statements, Environment env) {
+    Completion executeBlock(List<Stmt> statements, Environment env) {
         Environment previous = this.environment;
         try {
             this.environment = env;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        // A number stored into a local by a discarded assignment never
+        // needs a box.
+        if (stmt.expression instanceof Expr.Assign assign && assign.depth != -1
+                && producesNumber(assign.value)) {
+            try {
+                environment.assignNumberAt(assign.depth, assign.slot, evaluateNumber(assign.value));
+            } catch (UnexpectedResult e) {
+                environment.assignAt(assign.depth, assign.slot, e.value);
+            }
+            return Completion.NORMAL;
+        }
+
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -317,77 +648,98 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
-
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Fun method : stmt.methods) {
             LoxFunction function = new LoxFunction(method.name.lexeme, method.function, environment,
-                    method.name.lexeme.equals("init"));
+                    true, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme, stmt.name.line, (LoxClass)superclass, methods);
         if (superclass != null) {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
-        return null;
+        // Nothing can observe the class before its methods are bound, so it
+        // is declared once, fully built.
+        declare(stmt.name, klass);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunStmt(Stmt.Fun stmt) {
+    public Completion visitFunStmt(Stmt.Fun stmt) {
         String funName = stmt.name.lexeme;
-        environment.define(funName, new LoxFunction(funName, stmt.function, environment, false));
-        return null;
+        declare(stmt.name, new LoxFunction(funName, stmt.function, environment, false, false));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        out.println(stringify(value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if (environment != globals && stmt.initializer != null
+                && producesNumber(stmt.initializer)) {
+            try {
+                environment.defineNumber(evaluateNumber(stmt.initializer));
+            } catch (UnexpectedResult e) {
+                environment.define(e.value);
+            }
+            return Completion.NORMAL;
+        }
+
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        declare(stmt.name, value);
+        return Completion.NORMAL;
+    }
+
+    private void declare(Token name, Object value) {
+        if (environment == globals) {
+            globals.define(name.lexeme, value);
+        } else {
+            environment.define(value);
+        }
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        try {
-            while (isTruthy(evaluate(stmt.condition))) {
-                execute(stmt.body);
-            }
-        } catch (BreakException e) {}
-        return null;
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
-        throw new Return(value);
+        if (stmt.value != null) {
+            value = stmt.tailCall ? call((Expr.Call) stmt.value, true) : evaluate(stmt.value);
+        }
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    private static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operando must be a number.");
 
@@ -397,16 +749,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isString(Object object) {
+        return object instanceof String || object instanceof ConcatString;
+    }
+
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
+        if (a instanceof ConcatString || b instanceof ConcatString) {
+            return isString(a) && isString(b) && a.toString().equals(b.toString());
+        }
         return a.equals(b);
     }
 }
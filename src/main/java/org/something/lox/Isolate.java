@@ -0,0 +1,34 @@
+package org.something.lox;
+
+import java.io.PrintStream;
+
+/**
+ * A Lox runtime with its own globals, output and error state. Isolates
+ * share nothing but the Programs they run, so each one can run on its own
+ * thread, for example one per tenant on a thread pool. A single isolate
+ * runs one program at a time; globals it defines stay for the next run.
+ * This and {@link Program} are the API for embedding Lox.
+ */
+public final class Isolate {
+    private final Interpreter interpreter;
+
+    /** An isolate that prints to out and reports runtime errors to err. */
+    public Isolate(PrintStream out, PrintStream err) {
+        this.interpreter = new Interpreter(out, err);
+    }
+
+    /**
+     * Runs a program to its end. Returns false if it stopped with a
+     * runtime error. Throws IllegalArgumentException if it has compile
+     * errors.
+     */
+    public boolean run(Program program) {
+        if (program.hadError()) {
+            throw new IllegalArgumentException("Cannot run a program with compile errors.");
+        }
+
+        interpreter.hadRuntimeError = false;
+        interpreter.interpret(program.statements);
+        return !interpreter.hadRuntimeError;
+    }
+}
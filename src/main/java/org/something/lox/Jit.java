@@ -0,0 +1,526 @@
+package org.something.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.something.lox.ClassFileWriter.*;
+
+/**
+ * Compiles the body of a hot Lox function to JVM bytecode and loads it as a
+ * hidden class, so HotSpot can optimize it like any other Java method.
+ * Values stay boxed, as in the Interpreter, and locals of the function live
+ * in JVM locals instead of an Environment.
+ *
+ * Anything that can fail goes through {@link JitRuntime} with the token the
+ * Interpreter would report, so errors and their lines do not change. The
+ * tier covers the whole language except closures: a function that declares
+ * one, or holds a sequence expression, keeps running in the Interpreter.
+ */
+final class Jit implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "org/something/lox/JitRuntime";
+    private static final String INTERPRETER = "org/something/lox/Interpreter";
+    private static final String ENVIRONMENT = "org/something/lox/Environment";
+    private static final String INSTANCE = "org/something/lox/LoxInstance";
+    private static final String FUNCTION = "org/something/lox/LoxFunction";
+    private static final String TOKEN = "org/something/lox/Token";
+
+    private static final String INVOKE_DESCRIPTOR = "(L" + INTERPRETER + ";L" + ENVIRONMENT
+            + ";L" + INSTANCE + ";Ljava/util/List;)Ljava/lang/Object;";
+
+    // JVM locals of the compiled invoke() method.
+    private static final int THIS_LOCAL = 0;
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int CLOSURE_LOCAL = 2;
+    private static final int RECEIVER_LOCAL = 3;
+    private static final int ARGS_LOCAL = 4;
+    private static final int FIRST_LOCAL = 5;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Thrown when the function uses something this tier does not compile.
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // A Lox scope inside the function and the JVM local of its first slot.
+    private static class Scope {
+        final int base;
+        int count = 0;
+
+        Scope(int base) {
+            this.base = base;
+        }
+    }
+
+    private final ClassFileWriter.Code code;
+    private final String className;
+    // Tokens, nodes and literals the code loads from its constants array.
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    private int nextLocal = FIRST_LOCAL;
+    private Label breakTarget = null;
+
+    private Jit(ClassFileWriter writer, String className) {
+        this.className = className;
+        this.code = writer.addMethod(ACC_PUBLIC, "invoke", INVOKE_DESCRIPTOR);
+    }
+
+    /**
+     * Returns the compiled body of the function, or null when it has to
+     * stay in the Interpreter.
+     */
+    static CompiledFunction compile(String name, Expr.Fun function, boolean isMethod) {
+        if (function.captured) return null;
+
+        String className = "org/something/lox/Compiled$" + (name == null ? "lambda" : name);
+        ClassFileWriter writer = new ClassFileWriter(className, OBJECT);
+        writer.addInterface("org/something/lox/CompiledFunction");
+        writer.addField(ACC_FINAL, "constants", "[Ljava/lang/Object;");
+
+        Jit jit = new Jit(writer, className);
+        try {
+            jit.function(function, isMethod);
+        } catch (Unsupported | IllegalStateException e) {
+            return null;
+        }
+        constructor(writer, className);
+
+        try {
+            Class<?> compiled = LOOKUP.defineHiddenClass(writer.toByteArray(), true).lookupClass();
+            return (CompiledFunction) compiled.getDeclaredConstructor(Object[].class)
+                    .newInstance((Object) jit.constants.toArray());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load compiled function.", e);
+        }
+    }
+
+    private static void constructor(ClassFileWriter writer, String className) {
+        ClassFileWriter.Code init = writer.addMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V");
+        init.aload(0);
+        init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.aload(0);
+        init.aload(1);
+        init.field(PUTFIELD, className, "constants", "[Ljava/lang/Object;");
+        init.op(RETURN);
+        init.end();
+    }
+
+    private void function(Expr.Fun function, boolean isMethod) {
+        Scope scope = beginScope(function.slots);
+        // Like the Environment of an interpreted call: the receiver, then
+        // the arguments.
+        if (isMethod) {
+            code.aload(RECEIVER_LOCAL);
+            code.astore(scope.base + scope.count++);
+        }
+        for (int i = 0; i < function.parameters.size(); i++) {
+            code.aload(ARGS_LOCAL);
+            code.iconst(i);
+            code.invoke(INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;");
+            code.astore(scope.base + scope.count++);
+        }
+
+        statements(function.body);
+        code.op(ACONST_NULL);
+        code.returnValue();
+        endScope();
+        code.end();
+    }
+
+    // Statements after a return or break are never reached, so they are
+    // left out.
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+            if (statement instanceof Stmt.Return || statement instanceof Stmt.Break) break;
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope(stmt.slots);
+        statements(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // Methods close over the function's frame; the Resolver marks such
+        // functions as captured and they never get here.
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseBranch = code.label();
+        Label end = code.label();
+
+        condition(stmt.condition);
+        code.jump(IFEQ, elseBranch);
+        compile(stmt.thenBranch);
+        code.jump(GOTO, end);
+        code.place(elseBranch);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        code.aload(INTERPRETER_LOCAL);
+        code.field(GETFIELD, INTERPRETER, "out", "Ljava/io/PrintStream;");
+        compile(stmt.expression);
+        code.invoke(INVOKESTATIC, INTERPRETER, "stringify", "(Ljava/lang/Object;)Ljava/lang/String;");
+        code.invoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            code.op(ACONST_NULL);
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        code.astore(scope.base + scope.count++);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label enclosingBreak = breakTarget;
+        Label start = code.label();
+        Label end = code.label();
+        breakTarget = end;
+
+        code.place(start);
+        condition(stmt.condition);
+        code.jump(IFEQ, end);
+        compile(stmt.body);
+        code.jump(GOTO, start);
+        code.place(end);
+
+        breakTarget = enclosingBreak;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            code.op(ACONST_NULL);
+        } else if (stmt.tailCall) {
+            call((Expr.Call) stmt.value, true);
+        } else {
+            compile(stmt.value);
+        }
+        code.returnValue();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        code.jump(GOTO, breakTarget);
+        return null;
+    }
+
+    @Override
+    public Void visitSequenceExpr(Expr.Sequence expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth == -1) {
+            code.aload(INTERPRETER_LOCAL);
+            constant(expr.name, TOKEN);
+            compile(expr.value);
+            code.invoke(INVOKESTATIC, RUNTIME, "assignGlobal",
+                    "(L" + INTERPRETER + ";L" + TOKEN + ";Ljava/lang/Object;)Ljava/lang/Object;");
+        } else if (expr.depth < scopes.size()) {
+            compile(expr.value);
+            code.op(DUP);
+            code.astore(local(expr.depth, expr.slot));
+        } else {
+            code.aload(CLOSURE_LOCAL);
+            code.iconst(expr.depth - scopes.size());
+            code.iconst(expr.slot);
+            compile(expr.value);
+            code.invoke(INVOKESTATIC, RUNTIME, "assignAt",
+                    "(L" + ENVIRONMENT + ";IILjava/lang/Object;)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        String operation;
+        switch (expr.operator.type) {
+            case PLUS: operation = "add"; break;
+            case MINUS: operation = "subtract"; break;
+            case ASTERISK: operation = "multiply"; break;
+            case SLASH: operation = "divide"; break;
+            case GREATER: operation = "greater"; break;
+            case GREATER_EQUAL: operation = "greaterEqual"; break;
+            case LESS: operation = "less"; break;
+            case LESS_EQUAL: operation = "lessEqual"; break;
+            default: operation = "binary"; break;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+        constant(expr.operator, TOKEN);
+        code.invoke(INVOKESTATIC, RUNTIME, operation,
+                "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL);
+        } else {
+            constant(expr.value, OBJECT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        Label end = code.label();
+
+        compile(expr.left);
+        code.op(DUP);
+        code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP);
+        compile(expr.right);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        constant(expr.operator, TOKEN);
+        code.invoke(INVOKESTATIC, RUNTIME,
+                expr.operator.type == TokenType.MINUS ? "negate" : "unary",
+                "(Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        if (expr.depth == -1) {
+            code.aload(INTERPRETER_LOCAL);
+            code.field(GETFIELD, INTERPRETER, "globals", "L" + ENVIRONMENT + ";");
+            constant(expr.name, TOKEN);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "get", "(L" + TOKEN + ";)Ljava/lang/Object;");
+        } else {
+            load(expr.depth, expr.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, false);
+        return null;
+    }
+
+    // Mirrors Interpreter.call(Expr.Call, boolean), down to the order in
+    // which operands are evaluated and checked.
+    private void call(Expr.Call expr, boolean tail) {
+        String rest = "[Ljava/lang/Object;Lorg/something/lox/Expr$Call;Z)Ljava/lang/Object;";
+        code.aload(INTERPRETER_LOCAL);
+
+        if (expr.callee instanceof Expr.Get get) {
+            compile(get.object);
+            constant(get, "org/something/lox/Expr$Get");
+            code.invoke(INVOKESTATIC, RUNTIME, "receiver",
+                    "(Ljava/lang/Object;Lorg/something/lox/Expr$Get;)L" + INSTANCE + ";");
+            code.op(DUP);
+            constant(get, "org/something/lox/Expr$Get");
+            code.aload(INTERPRETER_LOCAL);
+            code.invoke(INVOKESTATIC, RUNTIME, "method",
+                    "(L" + INSTANCE + ";Lorg/something/lox/Expr$Get;L" + INTERPRETER + ";)L" + FUNCTION + ";");
+            code.op(DUP2);
+            constant(get, "org/something/lox/Expr$Get");
+            code.aload(INTERPRETER_LOCAL);
+            code.invoke(INVOKESTATIC, RUNTIME, "callee",
+                    "(L" + INSTANCE + ";L" + FUNCTION + ";Lorg/something/lox/Expr$Get;L"
+                            + INTERPRETER + ";)Ljava/lang/Object;");
+            arguments(expr, tail);
+            code.invoke(INVOKESTATIC, RUNTIME, "invoke",
+                    "(L" + INTERPRETER + ";L" + INSTANCE + ";L" + FUNCTION + ";Ljava/lang/Object;" + rest);
+        } else if (expr.callee instanceof Expr.Super sup) {
+            superMethod(sup);
+            arguments(expr, tail);
+            code.invoke(INVOKESTATIC, RUNTIME, "invokeSuper",
+                    "(L" + INTERPRETER + ";L" + FUNCTION + ";L" + INSTANCE + ";" + rest);
+        } else {
+            compile(expr.callee);
+            arguments(expr, tail);
+            code.invoke(INVOKESTATIC, RUNTIME, "call",
+                    "(L" + INTERPRETER + ";Ljava/lang/Object;" + rest);
+        }
+    }
+
+    private void arguments(Expr.Call expr, boolean tail) {
+        code.iconst(expr.args.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.args.size(); i++) {
+            code.op(DUP);
+            code.iconst(i);
+            compile(expr.args.get(i));
+            code.op(AASTORE);
+        }
+        constant(expr, "org/something/lox/Expr$Call");
+        code.iconst(tail ? 1 : 0);
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        constant(expr, "org/something/lox/Expr$Get");
+        code.aload(INTERPRETER_LOCAL);
+        code.invoke(INVOKESTATIC, RUNTIME, "get",
+                "(Ljava/lang/Object;Lorg/something/lox/Expr$Get;L" + INTERPRETER + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        constant(expr, "org/something/lox/Expr$Set");
+        code.invoke(INVOKESTATIC, RUNTIME, "instance",
+                "(Ljava/lang/Object;Lorg/something/lox/Expr$Set;)L" + INSTANCE + ";");
+        compile(expr.value);
+        constant(expr, "org/something/lox/Expr$Set");
+        code.aload(INTERPRETER_LOCAL);
+        code.invoke(INVOKESTATIC, RUNTIME, "set",
+                "(L" + INSTANCE + ";Ljava/lang/Object;Lorg/something/lox/Expr$Set;L"
+                        + INTERPRETER + ";)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        superMethod(expr);
+        code.invoke(INVOKEVIRTUAL, FUNCTION, "bind", "(L" + INSTANCE + ";)L" + FUNCTION + ";");
+        return null;
+    }
+
+    // Pushes the superclass method and then the receiver, as the
+    // Interpreter looks them up.
+    private void superMethod(Expr.Super expr) {
+        load(expr.depth, 0);
+        constant(expr, "org/something/lox/Expr$Super");
+        code.invoke(INVOKESTATIC, RUNTIME, "superMethod",
+                "(Ljava/lang/Object;Lorg/something/lox/Expr$Super;)L" + FUNCTION + ";");
+        load(expr.depth - 1, 0);
+        code.type(CHECKCAST, INSTANCE);
+    }
+
+    @Override
+    public Void visitFunExpr(Expr.Fun expr) {
+        throw new Unsupported();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void condition(Expr expr) {
+        compile(expr);
+        code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    // Locals declared inside the function are JVM locals; anything further
+    // out is read from the closure.
+    private void load(int depth, int slot) {
+        if (depth < scopes.size()) {
+            code.aload(local(depth, slot));
+        } else {
+            code.aload(CLOSURE_LOCAL);
+            code.iconst(depth - scopes.size());
+            code.iconst(slot);
+            code.invoke(INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+        }
+    }
+
+    private int local(int depth, int slot) {
+        return scopes.get(scopes.size() - 1 - depth).base + slot;
+    }
+
+    private void constant(Object value, String type) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+
+        code.aload(THIS_LOCAL);
+        code.field(GETFIELD, className, "constants", "[Ljava/lang/Object;");
+        code.iconst(index);
+        code.op(AALOAD);
+        if (!type.equals(OBJECT)) code.type(CHECKCAST, type);
+    }
+
+    // A fresh scope starts out empty, like a new Environment. Clearing its
+    // locals also keeps the verifier from seeing values of sibling scopes.
+    private Scope beginScope(int slots) {
+        Scope scope = new Scope(nextLocal);
+        nextLocal += slots;
+        for (int i = 0; i < slots; i++) {
+            code.op(ACONST_NULL);
+            code.astore(scope.base + i);
+        }
+        scopes.add(scope);
+        return scope;
+    }
+
+    private void endScope() {
+        Scope scope = scopes.remove(scopes.size() - 1);
+        nextLocal = scope.base;
+    }
+}
@@ -0,0 +1,129 @@
+package org.something.lox;
+
+import java.util.Arrays;
+
+/**
+ * Operations called from code compiled by the {@link Jit}. Each one takes
+ * the token or node the Interpreter would use, so compiled code fails with
+ * the same RuntimeError on the same line. The number cases come first and
+ * are small enough for HotSpot to inline.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a + b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a - b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a * b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        // Division by zero is an error; leave it to the Interpreter.
+        if (left instanceof Double a && right instanceof Double b && b != 0) return a / b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a > b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a >= b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a < b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double b) return a <= b;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object binary(Object left, Object right, Token operator) {
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object negate(Object right, Token operator) {
+        if (right instanceof Double a) return -a;
+        return Interpreter.unary(operator, right);
+    }
+
+    static Object unary(Object right, Token operator) {
+        return Interpreter.unary(operator, right);
+    }
+
+    static Object assignGlobal(Interpreter interpreter, Token name, Object value) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    static Object assignAt(Environment environment, int distance, int slot, Object value) {
+        environment.assignAt(distance, slot, value);
+        return value;
+    }
+
+    static Object get(Object object, Expr.Get expr, Interpreter interpreter) {
+        if (object instanceof LoxInstance instance) return instance.get(expr, interpreter.caches);
+        throw new RuntimeError(expr.name, "Only instances have properties.");
+    }
+
+    static LoxInstance instance(Object object, Expr.Set expr) {
+        if (object instanceof LoxInstance instance) return instance;
+        throw new RuntimeError(expr.name, "Only instances have fields.");
+    }
+
+    static Object set(LoxInstance instance, Object value, Expr.Set expr, Interpreter interpreter) {
+        instance.set(expr, value, interpreter.caches);
+        return value;
+    }
+
+    static LoxInstance receiver(Object object, Expr.Get expr) {
+        if (object instanceof LoxInstance instance) return instance;
+        throw new RuntimeError(expr.name, "Only instances have properties.");
+    }
+
+    static LoxFunction method(LoxInstance instance, Expr.Get expr, Interpreter interpreter) {
+        return instance.method(expr, interpreter.caches);
+    }
+
+    // The value a method call site calls when the name is not a method.
+    static Object callee(LoxInstance instance, LoxFunction method, Expr.Get expr,
+                         Interpreter interpreter) {
+        return method != null ? method : instance.get(expr, interpreter.caches);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] args,
+                       Expr.Call expr, boolean tail) {
+        return interpreter.call(callee, Arrays.asList(args), expr.paren, tail);
+    }
+
+    static Object invoke(Interpreter interpreter, LoxInstance instance, LoxFunction method,
+                         Object callee, Object[] args, Expr.Call expr, boolean tail) {
+        if (method != null) {
+            return interpreter.invoke(method, instance, Arrays.asList(args), expr.paren, tail);
+        }
+        return interpreter.call(callee, Arrays.asList(args), expr.paren, tail);
+    }
+
+    static LoxFunction superMethod(Object superclass, Expr.Super expr) {
+        return Interpreter.superMethod((LoxClass) superclass, expr);
+    }
+
+    static Object invokeSuper(Interpreter interpreter, LoxFunction method, LoxInstance receiver,
+                              Object[] args, Expr.Call expr, boolean tail) {
+        return interpreter.invoke(method, receiver, Arrays.asList(args), expr.paren, tail);
+    }
+}
@@ -3,38 +3,165 @@ package org.something.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-
-import static org.something.lox.TokenType.EOF;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Lox {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
+    static boolean useVm = false;
+    static int optimizationLevel = Optimizer.PROPAGATE;
+    static boolean useCache = true;
+
+    // Prints compile errors as they are found.
+    static final ErrorReporter reporter = Lox::report;
+
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm;
+    // Set by --sample; also attached to the interpreter as its profiler.
+    private static SamplingProfiler sampler;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        List<String> scripts = new ArrayList<>();
+        boolean profile = false;
+        String profilePath = null;
+        String samplePath = null;
+        long sampleIntervalMicros = 1000;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                useVm = true;
+            } else if (arg.equals("--no-specialize")) {
+                interpreter.specialize = false;
+            } else if (arg.equals("--no-jit")) {
+                interpreter.jitThreshold = 0;
+            } else if (arg.equals("--no-cache")) {
+                useCache = false;
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                profile = true;
+                if (arg.startsWith("--profile=")) profilePath = arg.substring("--profile=".length());
+            } else if (arg.startsWith("--sample=")) {
+                samplePath = arg.substring("--sample=".length());
+            } else if (arg.matches("--sample-interval=[1-9][0-9]*")) {
+                sampleIntervalMicros = Long.parseLong(arg.substring("--sample-interval=".length()));
+            } else if (arg.matches("-O[0-2]")) {
+                optimizationLevel = arg.charAt(2) - '0';
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        // Only one profiler can be attached, and neither sees the VM's calls.
+        if (profile && samplePath != null) usage();
+        if ((profile || samplePath != null) && useVm) usage();
+        if (profile) {
+            interpreter.profiler = new CallProfiler(profilePath != null ? Paths.get(profilePath) : null);
+        } else if (samplePath != null) {
+            sampler = new SamplingProfiler(Paths.get(samplePath), sampleIntervalMicros * 1000);
+            sampler.start();
+            interpreter.profiler = sampler;
+        }
+
+        if (scripts.size() > 1) {
+            runFiles(scripts);
+        } else if (scripts.size() == 1) {
+            runFile(scripts.get(0));
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--no-specialize] [--no-jit] [--no-cache] [--profile[=FILE]] [--sample=FILE [--sample-interval=MICROS]] [-O0|-O1|-O2] [script...]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        // Scripts are UTF-8 and are scanned straight from the mapped file.
+        ByteBuffer source;
+        try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ProgramCache cache = useCache
+                ? new ProgramCache(ProgramCache.defaultDirectory(), optimizationLevel)
+                : null;
+
+        PhaseEvent load = PhaseEvent.start("load");
+        List<Stmt> program = cache != null ? cache.load(source) : null;
+        if (program != null) load.commit();
+        if (program == null) {
+            program = compile(new Parser(new Scanner(source.duplicate())));
+            if (program != null && cache != null) cache.store(source, program);
+        }
+        if (program != null) execute(program);
+        reportProfile();
 
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
 
+    /**
+     * Runs several files as one program. The files are compiled in
+     * parallel, since nothing is shared before they are linked, and then
+     * run one after another in dependency order. Runtime errors name the
+     * file they were raised in.
+     */
+    private static void runFiles(List<String> paths) throws IOException {
+        List<CompilationUnit> units = new ArrayList<>(paths.size());
+        List<Callable<Void>> tasks = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            CompilationUnit unit = new CompilationUnit(Paths.get(path));
+            units.add(unit);
+            tasks.add(() -> {
+                unit.compile(optimizationLevel);
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (Future<Void> task : pool.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            pool.shutdown();
+        }
+
+        for (CompilationUnit unit : units) {
+            for (String error : unit.errors()) {
+                System.err.println(error);
+            }
+            if (unit.hadError()) hadError = true;
+        }
+        if (hadError) System.exit(65);
+
+        List<CompilationUnit> linked = CompilationUnit.link(units);
+        interpreter.sources = token -> CompilationUnit.sourceOf(linked, token);
+        for (CompilationUnit unit : linked) {
+            execute(unit.statements, unit.path.toString());
+            if (hadRuntimeError) break;
+        }
+        reportProfile();
+
+        if (hadRuntimeError) System.exit(70);
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader buffer = new BufferedReader(input);
@@ -46,43 +173,65 @@ public class Lox {
             run(line);
             hadError = false;
         }
+        reportProfile();
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+        // A line is already in memory, so it can be scanned as a whole.
+        PhaseEvent scan = PhaseEvent.start("scan");
+        TokenBuffer tokens = TokenBuffer.scan(source);
+        scan.commit();
+
+        List<Stmt> program = compile(new Parser(tokens));
+        if (program != null) execute(program);
+    }
 
+    // Returns the resolved and optimized program, or null if it has errors.
+    private static List<Stmt> compile(Parser parser) {
+        PhaseEvent phase = PhaseEvent.start("parse");
         List<Stmt> program = parser.parse();
-        if (hadError) return;
+        phase.commit();
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        phase = PhaseEvent.start("resolve");
+        Resolver resolver = new Resolver();
         resolver.resolve(program);
-        if (hadError) return;
+        phase.commit();
+        if (hadError) return null;
 
-        interpreter.interpret(program);
+        phase = PhaseEvent.start("optimize");
+        program = new Optimizer(optimizationLevel).optimize(program);
+        phase.commit();
+        return program;
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private static void execute(List<Stmt> program) {
+        execute(program, null);
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    // The source names the file the program came from, if there are several.
+    private static void execute(List<Stmt> program, String source) {
+        PhaseEvent phase = PhaseEvent.start("interpret");
+        if (useVm) {
+            if (vm == null) vm = new VM();
+            vm.interpret(new BytecodeCompiler(source).compile(program));
+            if (vm.hadRuntimeError) hadRuntimeError = true;
+        } else {
+            // Only running code is sampled, not compiling it.
+            if (sampler != null) sampler.resume();
+            interpreter.interpret(program);
+            if (sampler != null) sampler.pause();
+            if (interpreter.hadRuntimeError) hadRuntimeError = true;
+        }
+        phase.commit();
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    private static void reportProfile() throws IOException {
+        if (interpreter.profiler != null) interpreter.profiler.finish();
     }
 
-    static void error(Token token, String message) {
-        if (token.type == EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
+    private static void report(int line, String where, String message) {
+        System.err.println(ErrorReporter.format(line, where, message));
+        hadError = true;
     }
 }
@@ -5,4 +5,9 @@ import java.util.List;
 interface LoxCallable {
     Object call(Interpreter interpreter, List<Object> args);
     int arity();
+
+    // How the profiler shows a native.
+    default String name() {
+        return toString();
+    }
 }
@@ -1,40 +1,67 @@
 package org.something.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
     final String name;
+    // Line of the declaration, for the profiler.
+    final int line;
     final LoxClass superclass;
+    // Own and inherited methods, flattened when the class is created.
     private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    private final int arity;
+    final Shape rootShape = new Shape();
+    // Largest field count seen on an instance; new instances start this big.
+    int instanceSize = 0;
 
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    LoxClass(String name, int line, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
+        this.line = line;
         this.superclass = superclass;
+
+        if (superclass != null) {
+            Map<String, LoxFunction> flattened = new HashMap<>(superclass.methods);
+            flattened.putAll(methods);
+            methods = flattened;
+        }
         this.methods = methods;
+
+        this.initializer = this.methods.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
     LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) return methods.get(name);
-        if (superclass != null) return superclass.findMethod(name);
-        return null;
+        return methods.get(name);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
+        Profiler profiler = interpreter.profiler;
+        if (profiler != null) profiler.enter(this, name, line);
+        InstantiationEvent event = new InstantiationEvent();
+        event.begin();
+
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction init = findMethod("init");
-        if (init != null) {
-            init.bind(instance).call(interpreter, args);
+        if (initializer != null) {
+            initializer.invoke(interpreter, instance, args);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.loxClass = name;
+            event.line = line;
+            event.commit();
         }
+        if (profiler != null) profiler.exit();
         return instance;
     }
 
     @Override
     public int arity() {
-        LoxFunction init = findMethod("init");
-        if (init == null) return 0;
-        return init.arity();
+        return arity;
     }
 
     @Override
@@ -6,37 +6,116 @@ class LoxFunction implements LoxCallable {
     private final String name;
     private final Expr.Fun declaration;
     private final Environment closure;
+    private final boolean isMethod;
     private final boolean isInitializer;
+    // Set only on methods taken as first-class values.
+    private final LoxInstance receiver;
 
-    LoxFunction(String name, Expr.Fun declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(String name, Expr.Fun declaration, Environment closure,
+                boolean isMethod, boolean isInitializer) {
+        this(name, declaration, closure, isMethod, isInitializer, null);
+    }
+
+    private LoxFunction(String name, Expr.Fun declaration, Environment closure,
+                        boolean isMethod, boolean isInitializer, LoxInstance receiver) {
         this.name = name;
         this.declaration = declaration;
         this.closure = closure;
+        this.isMethod = isMethod;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment env = new Environment(closure);
-        env.define("this", instance);
-        return new LoxFunction(name, declaration, env, isInitializer);
+        return new LoxFunction(name, declaration, closure, isMethod, isInitializer, instance);
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
-        Environment env = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            env.define(declaration.parameters.get(i).lexeme, args.get(i));
+        return invoke(interpreter, receiver, args);
+    }
+
+    TailCall tailCall(List<Object> args) {
+        return new TailCall(this, receiver, args);
+    }
+
+    Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> args) {
+        LoxFunction function = this;
+        LoxFunction frameOwner = null;
+        Environment env = null;
+        Profiler profiler = interpreter.profiler;
+        // Calls in tail position come back here instead of growing the stack.
+        while (true) {
+            if (profiler != null) {
+                profiler.enter(function.declaration, function.name != null ? function.name : "<fn>",
+                        function.declaration.line);
+            }
+            CallEvent event = new CallEvent();
+            event.begin();
+
+            Object result;
+            CompiledFunction compiled = function.compiled(interpreter);
+            if (compiled != null) {
+                result = compiled.invoke(interpreter, function.closure, receiver, args);
+            } else {
+                // No closure can hold on to the frame of a function without
+                // closures, so a call back into it reuses the frame.
+                if (function == frameOwner && !function.declaration.captured) {
+                    env.reset();
+                } else {
+                    env = new Environment(function.closure, function.declaration.slots);
+                    frameOwner = function;
+                }
+                result = function.execute(interpreter, env, receiver, args);
+            }
+            // A tail call ends this call before the next one starts.
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = function.name != null ? function.name : "<fn>";
+                event.line = function.declaration.line;
+                event.commit();
+            }
+            if (profiler != null) profiler.exit();
+
+            if (function.isInitializer) return receiver;
+            if (!(result instanceof TailCall call)) return result;
+
+            function = call.function;
+            receiver = call.receiver;
+            args = call.args;
         }
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, env);
-        } catch (Return r) {
-            if (isInitializer) return closure.getAt(0, "this");
+    // Counts calls to the declaration, shared by every closure made from
+    // it, and compiles it once it gets hot.
+    private CompiledFunction compiled(Interpreter interpreter) {
+        Expr.Fun fn = declaration;
+        if (fn.compiled == null && interpreter.jitThreshold > 0
+                && fn.calls >= 0 && ++fn.calls >= interpreter.jitThreshold) {
+            // Isolates share declarations, so threads can race to compile.
+            // The count is only a heuristic; the compile itself runs once.
+            synchronized (fn) {
+                if (fn.compiled == null && fn.calls >= 0) {
+                    fn.compiled = Jit.compile(name, fn, isMethod);
+                    // Functions the Jit cannot handle stop counting. Racing
+                    // increments cannot bring this back up to zero.
+                    if (fn.compiled == null) fn.calls = Integer.MIN_VALUE;
+                }
+            }
+        }
+        return fn.compiled;
+    }
 
-            return r.value;
+    private Object execute(Interpreter interpreter, Environment env,
+                           LoxInstance receiver, List<Object> args) {
+        if (isMethod) env.define(receiver);
+        for (int i = 0; i < args.size(); i++) {
+            env.define(args.get(i));
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
+        Completion completion = interpreter.executeBlock(declaration.body, env);
+
+        if (completion == Completion.RETURN) return interpreter.takeReturnValue();
         return null;
     }
 
@@ -1,20 +1,21 @@
 package org.something.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] fields;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.fields = new Object[klass.instanceSize];
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+        int index = shape.indexOf(name.lexeme);
+        if (index != -1) return fields[index];
 
         LoxFunction method = klass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
@@ -22,8 +23,95 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    Object get(Expr.Get expr, InlineCache.Table caches) {
+        InlineCache head = caches.get(expr.site);
+        if (head == InlineCache.MEGAMORPHIC) return get(expr.name);
+
+        InlineCache entry = lookup(expr, head, caches);
+        if (entry.index != -1) return fields[entry.index];
+        return entry.method.bind(this);
+    }
+
+    /**
+     * Returns the class method a call site names, or null when the
+     * property is a field. Lets callers invoke methods without binding.
+     */
+    LoxFunction method(Expr.Get expr, InlineCache.Table caches) {
+        InlineCache head = caches.get(expr.site);
+        if (head == InlineCache.MEGAMORPHIC) {
+            if (shape.indexOf(expr.name.lexeme) != -1) return null;
+
+            LoxFunction method = klass.findMethod(expr.name.lexeme);
+            if (method == null) {
+                throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+            }
+            return method;
+        }
+        return lookup(expr, head, caches).method;
+    }
+
+    private InlineCache lookup(Expr.Get expr, InlineCache head, InlineCache.Table caches) {
+        for (InlineCache entry = head; entry != null; entry = entry.next) {
+            if (entry.shape == shape) return entry;
+        }
+
+        InlineCache entry;
+        int index = shape.indexOf(expr.name.lexeme);
+        if (index != -1) {
+            entry = InlineCache.field(head, shape, index);
+        } else {
+            LoxFunction method = klass.findMethod(expr.name.lexeme);
+            if (method == null) {
+                throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+            }
+            entry = InlineCache.method(head, shape, method);
+        }
+
+        caches.put(expr.site, InlineCache.install(head, entry));
+        return entry;
+    }
+
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.lexeme);
+        if (index == -1) {
+            index = addField(shape.withField(name.lexeme));
+        }
+        fields[index] = value;
+    }
+
+    void set(Expr.Set expr, Object value, InlineCache.Table caches) {
+        InlineCache head = caches.get(expr.site);
+        if (head == InlineCache.MEGAMORPHIC) {
+            set(expr.name, value);
+            return;
+        }
+
+        for (InlineCache entry = head; entry != null; entry = entry.next) {
+            if (entry.shape == shape) {
+                if (entry.transition != shape) addField(entry.transition);
+                fields[entry.index] = value;
+                return;
+            }
+        }
+
+        Shape before = shape;
+        int index = shape.indexOf(expr.name.lexeme);
+        if (index == -1) {
+            index = addField(shape.withField(expr.name.lexeme));
+        }
+        InlineCache entry = InlineCache.store(head, before, index, shape);
+        caches.put(expr.site, InlineCache.install(head, entry));
+        fields[index] = value;
+    }
+
+    private int addField(Shape next) {
+        int index = shape.size();
+        if (index == fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        shape = next;
+        if (next.size() > klass.instanceSize) klass.instanceSize = next.size();
+        return index;
     }
 
     @Override
@@ -0,0 +1,241 @@
+package org.something.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * Runs Lox for Java code through javax.script. The engine-scope bindings
+ * are the script's globals: the interpreter reads and writes the Bindings
+ * map directly, so values a script defines are there for the caller
+ * afterwards, and nothing is copied or printed on the way. Names the
+ * engine scope lacks are read from the global scope and then from Lox's
+ * built-ins such as clock. Neither is written to; assigning such a name
+ * defines it in the engine scope.
+ *
+ * Java numbers in the bindings are turned into doubles, Lox's only number
+ * type, and characters into strings. Other objects pass through untouched.
+ * Strings a script builds come back as Strings.
+ * A script evaluates to the value of its last statement when that is an
+ * expression, and to null otherwise.
+ *
+ * Compiling scans, parses, resolves and optimizes once. Each evaluation of
+ * a compiled script runs in a fresh interpreter, so one script can be run
+ * against many bindings, on several threads at once.
+ */
+final class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final LoxScriptEngineFactory factory;
+    // Print streams over the writers of the last context used. Making new
+    // ones costs more than a short script takes to run.
+    private volatile Output output = null;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(new StringReader(script), context).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return compile(reader, context).eval(context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(new StringReader(script), context);
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(script, context);
+    }
+
+    private Script compile(Reader source, ScriptContext context) throws ScriptException {
+        Program program = Program.compile(source, Optimizer.PROPAGATE);
+        if (program.hadError()) {
+            throw new ScriptException(String.join("\n", program.errors()), fileName(context), -1);
+        }
+        return new Script(this, program);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private Output output(ScriptContext context) {
+        Writer writer = context.getWriter();
+        Writer errorWriter = context.getErrorWriter();
+        Output last = output;
+        if (last == null || last.writer != writer || last.errorWriter != errorWriter) {
+            last = new Output(writer, errorWriter);
+            output = last;
+        }
+        return last;
+    }
+
+    private static final class Output {
+        final Writer writer;
+        final Writer errorWriter;
+        final PrintStream out;
+        final PrintStream err;
+
+        Output(Writer writer, Writer errorWriter) {
+            this.writer = writer;
+            this.errorWriter = errorWriter;
+            this.out = new PrintStream(new WriterOutputStream(writer), false, StandardCharsets.UTF_8);
+            this.err = new PrintStream(new WriterOutputStream(errorWriter), false, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String fileName(ScriptContext context) {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name != null ? name.toString() : null;
+    }
+
+    static Object toLox(Object value) {
+        if (value == null || value instanceof Double || value instanceof Boolean
+                || value instanceof String) {
+            return value;
+        }
+        if (value instanceof Number number) return number.doubleValue();
+        if (value instanceof Character character) return character.toString();
+        return value;
+    }
+
+    private static final class Script extends CompiledScript {
+        private final LoxScriptEngine engine;
+        private final Program program;
+
+        Script(LoxScriptEngine engine, Program program) {
+            this.engine = engine;
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            bindings.replaceAll((name, value) -> toLox(value));
+
+            Bindings shared = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            Environment outer = shared != null ? new GlobalScope(shared) : Interpreter.NATIVES;
+
+            Output output = engine.output(context);
+            Interpreter interpreter = new Interpreter(output.out, output.err, bindings, outer);
+            try {
+                return ConcatString.flatten(interpreter.run(program.statements));
+            } catch (RuntimeError e) {
+                RuntimeErrorEvent.emit(e);
+                throw new ScriptException(e.getMessage(), fileName(context), e.line);
+            } finally {
+                bindings.replaceAll((name, value) -> ConcatString.flatten(value));
+                output.out.flush();
+                output.err.flush();
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+
+    /**
+     * The global scope under a script's globals. Its bindings may be shared
+     * with other engines, so values are converted as they are read instead
+     * of in place.
+     */
+    private static final class GlobalScope extends Environment {
+        private final Bindings bindings;
+
+        GlobalScope(Bindings bindings) {
+            super(bindings, Interpreter.NATIVES);
+            this.bindings = bindings;
+        }
+
+        @Override
+        Object get(Token name) {
+            if (bindings.containsKey(name.lexeme)) return toLox(bindings.get(name.lexeme));
+            return enclosing.get(name);
+        }
+    }
+
+    /**
+     * Hands what the interpreter prints to a context's Writer. Bytes are
+     * decoded as they arrive; a character split between writes waits for
+     * the rest of its bytes. Its PrintStream's lock keeps writes in order.
+     */
+    private static final class WriterOutputStream extends OutputStream {
+        private final Writer writer;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(256);
+        private final byte[] carry = new byte[4];
+        private int carried = 0;
+
+        WriterOutputStream(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer bytes;
+            if (carried == 0) {
+                bytes = ByteBuffer.wrap(b, off, len);
+            } else {
+                byte[] joined = Arrays.copyOf(carry, carried + len);
+                System.arraycopy(b, off, joined, carried, len);
+                bytes = ByteBuffer.wrap(joined);
+            }
+
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, false);
+                writer.write(chars.array(), 0, chars.position());
+                chars.clear();
+            } while (result.isOverflow());
+
+            carried = bytes.remaining();
+            bytes.get(carry, 0, carried);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+    }
+}
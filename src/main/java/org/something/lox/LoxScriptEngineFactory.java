@@ -0,0 +1,91 @@
+package org.something.lox;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Makes the Lox engine available through javax.script, for example with
+ * {@code new ScriptEngineManager().getEngineByName("lox")}. Registered in
+ * META-INF/services; the class is public only so ServiceLoader can make it.
+ */
+public final class LoxScriptEngineFactory implements ScriptEngineFactory {
+    private static final String VERSION = "1.0";
+
+    @Override
+    public String getEngineName() {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("lox");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("application/x-lox");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("lox", "Lox", "jlox");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "Lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return VERSION;
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        switch (key) {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.NAME: return getNames().get(0);
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            // Every evaluation gets an interpreter of its own.
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        // Lox strings have no escapes, so the text cannot contain a quote.
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement);
+            if (!statement.endsWith(";") && !statement.endsWith("}")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
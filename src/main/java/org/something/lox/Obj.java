@@ -0,0 +1,120 @@
+package org.something.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Runtime objects of the bytecode VM.
+final class Obj {
+    private Obj() {}
+
+    static final class Function {
+        final String name;
+        // File the function was compiled from, when the program has several.
+        final String source;
+        int arity = 0;
+        int upvalueCount = 0;
+        int maxStack = 0;
+        final Chunk chunk = new Chunk();
+
+        Function(String name, String source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        @Override
+        public String toString() {
+            if (name == null) return "<fn>";
+            return "<fn " + name + ">";
+        }
+    }
+
+    static final class Closure {
+        final Function function;
+        final Upvalue[] upvalues;
+
+        Closure(Function function) {
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString() {
+            return function.toString();
+        }
+    }
+
+    static final class Upvalue {
+        // Stack slot while the variable is still live, -1 once closed.
+        int slot;
+        Object closed;
+        Upvalue next;
+
+        Upvalue(int slot, Upvalue next) {
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    static final class Class {
+        final String name;
+        final Map<String, Closure> methods = new HashMap<>();
+        Closure initializer;
+
+        Class(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static final class Instance {
+        final Class klass;
+        final Map<String, Object> fields = new HashMap<>();
+
+        Instance(Class klass) {
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString() {
+            return klass.name + " instance";
+        }
+    }
+
+    static final class BoundMethod {
+        final Object receiver;
+        final Closure method;
+
+        BoundMethod(Object receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    interface NativeFn {
+        Object call(Object[] args);
+    }
+
+    static final class Native {
+        final int arity;
+        final NativeFn function;
+
+        Native(int arity, NativeFn function) {
+            this.arity = arity;
+            this.function = function;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.something.lox;
+
+final class OpCode {
+    static final int CONSTANT = 0;
+    static final int NIL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+    static final int GET_LOCAL = 5;
+    static final int SET_LOCAL = 6;
+    static final int GET_GLOBAL = 7;
+    static final int DEFINE_GLOBAL = 8;
+    static final int SET_GLOBAL = 9;
+    static final int GET_UPVALUE = 10;
+    static final int SET_UPVALUE = 11;
+    static final int GET_PROPERTY = 12;
+    static final int SET_PROPERTY = 13;
+    static final int GET_SUPER = 14;
+    static final int EQUAL = 15;
+    static final int GREATER = 16;
+    static final int GREATER_EQUAL = 17;
+    static final int LESS = 18;
+    static final int LESS_EQUAL = 19;
+    static final int ADD = 20;
+    static final int SUBTRACT = 21;
+    static final int MULTIPLY = 22;
+    static final int DIVIDE = 23;
+    static final int NOT = 24;
+    static final int NEGATE = 25;
+    static final int PRINT = 26;
+    static final int JUMP = 27;
+    static final int JUMP_IF_FALSE = 28;
+    static final int LOOP = 29;
+    static final int CALL = 30;
+    static final int INVOKE = 31;
+    static final int SUPER_INVOKE = 32;
+    static final int CLOSURE = 33;
+    static final int CLOSE_UPVALUE = 34;
+    static final int RETURN = 35;
+    static final int CLASS = 36;
+    static final int INHERIT = 37;
+    static final int METHOD = 38;
+
+    // Net effect of each instruction on the value stack. CALL, INVOKE,
+    // SUPER_INVOKE and CLOSURE depend on their operands and are
+    // accounted for by the compiler.
+    static final int[] STACK_EFFECT = {
+            1, 1, 1, 1, -1,     // CONSTANT .. POP
+            1, 0, 1, -1, 0,     // GET_LOCAL .. SET_GLOBAL
+            1, 0, 0, -1, -1,    // GET_UPVALUE .. GET_SUPER
+            -1, -1, -1, -1, -1, // EQUAL .. LESS_EQUAL
+            -1, -1, -1, -1,     // ADD .. DIVIDE
+            0, 0, -1,           // NOT, NEGATE, PRINT
+            0, 0, 0,            // JUMP, JUMP_IF_FALSE, LOOP
+            0, 0, 0, 0,         // CALL, INVOKE, SUPER_INVOKE, CLOSURE
+            -1, -1,             // CLOSE_UPVALUE, RETURN
+            1, -1, -1           // CLASS, INHERIT, METHOD
+    };
+
+    private OpCode() {}
+}
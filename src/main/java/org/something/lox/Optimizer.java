@@ -0,0 +1,286 @@
+package org.something.lox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a resolved program before it runs. Level 1 folds operators on
+ * literals and drops statements that can never run. Level 2 also replaces
+ * reads of locals that are declared with a literal and never assigned.
+ *
+ * Folding evaluates with the Interpreter's own operators. An operation
+ * that would fail is left in place, so its RuntimeError still happens at
+ * run time and on the same line.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static final int NONE = 0;
+    static final int FOLD = 1;
+    static final int PROPAGATE = 2;
+
+    private final int level;
+    // Literal values of locals that are never assigned, by declaration.
+    private final Map<Stmt.Var, Expr.Literal> constants = new IdentityHashMap<>();
+
+    Optimizer(int level) {
+        this.level = level;
+    }
+
+    List<Stmt> optimize(List<Stmt> program) {
+        if (level == NONE) return program;
+        return statements(program);
+    }
+
+    // Leaves out pruned statements and everything after a return or break.
+    private List<Stmt> statements(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result == null) continue;
+
+            optimized.add(result);
+            if (result instanceof Stmt.Return || result instanceof Stmt.Break) break;
+        }
+        return optimized;
+    }
+
+    // A statement the grammar requires, such as a loop body, cannot vanish.
+    private Stmt branch(Stmt stmt) {
+        Stmt result = optimize(stmt);
+        return result != null ? result : new Stmt.Block(new ArrayList<>());
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        Stmt.Block block = new Stmt.Block(statements(stmt.statements));
+        block.slots = stmt.slots;
+        return block;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Fun> methods = new ArrayList<>(stmt.methods.size());
+        for (Stmt.Fun method : stmt.methods) {
+            methods.add((Stmt.Fun) optimize(method));
+        }
+        return new Stmt.Class(stmt.name, stmt.superclass, methods);
+    }
+
+    @Override
+    public Stmt visitFunStmt(Stmt.Fun stmt) {
+        return new Stmt.Fun(stmt.name, (Expr.Fun) optimize(stmt.function));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value)) return optimize(stmt.thenBranch);
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, branch(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+
+        // The statement stays even when its reads are replaced: it still
+        // takes the variable's slot.
+        if (level >= PROPAGATE && !stmt.assigned) {
+            if (initializer == null) {
+                constants.put(stmt, new Expr.Literal(null));
+            } else if (initializer instanceof Expr.Literal literal) {
+                constants.put(stmt, literal);
+            }
+        }
+
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.assigned = stmt.assigned;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value)) {
+            return null;
+        }
+        return new Stmt.While(condition, branch(stmt.body));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall && value instanceof Expr.Call;
+        return result;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitSequenceExpr(Expr.Sequence expr) {
+        return new Expr.Sequence(expressions(expr.expressions));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal l && right instanceof Expr.Literal r) {
+            try {
+                // Literals are shared by every run, so they hold no builders.
+                Object value = Interpreter.binary(expr.operator, l.value, r.value);
+                return new Expr.Literal(ConcatString.flatten(value));
+            } catch (RuntimeException e) {
+                // Fails at run time instead.
+            }
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal literal) {
+            boolean truthy = Interpreter.isTruthy(literal.value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal literal) {
+            try {
+                return new Expr.Literal(Interpreter.unary(expr.operator, literal.value));
+            } catch (RuntimeException e) {
+                // Fails at run time instead.
+            }
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVarExpr(Expr.Var expr) {
+        if (expr.declaration != null) {
+            Expr.Literal literal = constants.get(expr.declaration);
+            if (literal != null) return literal;
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return new Expr.Call(optimize(expr.callee), expr.paren, expressions(expr.args));
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitFunExpr(Expr.Fun expr) {
+        Expr.Fun function = new Expr.Fun(expr.parameters, statements(expr.body));
+        function.slots = expr.slots;
+        function.captured = expr.captured;
+        function.line = expr.line;
+        return function;
+    }
+
+    private List<Expr> expressions(List<Expr> expressions) {
+        List<Expr> optimized = new ArrayList<>(expressions.size());
+        for (Expr expression : expressions) {
+            optimized.add(optimize(expression));
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+}
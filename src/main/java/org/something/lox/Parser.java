@@ -2,21 +2,178 @@ package org.something.lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.something.lox.TokenType.*;
 
 public class Parser {
-    private final List<Token> tokens;
-    private int current = 0;
+    // Binding power of tokens used as infix or postfix operators.
+    private static final int PREC_NONE = 0;
+    private static final int PREC_ASSIGNMENT = 1;  // =
+    private static final int PREC_OR = 2;          // or
+    private static final int PREC_AND = 3;         // and
+    private static final int PREC_EQUALITY = 4;    // == !=
+    private static final int PREC_COMPARISON = 5;  // < > <= >=
+    private static final int PREC_TERM = 6;        // + -
+    private static final int PREC_FACTOR = 7;      // * /
+    private static final int PREC_UNARY = 8;       // ! -
+    private static final int PREC_CALL = 9;        // . ()
+
+    // Infix precedence by TokenType ordinal; PREC_NONE ends an expression.
+    private static final int[] INFIX_PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        INFIX_PRECEDENCE[EQUAL.ordinal()] = PREC_ASSIGNMENT;
+        INFIX_PRECEDENCE[OR.ordinal()] = PREC_OR;
+        INFIX_PRECEDENCE[AND.ordinal()] = PREC_AND;
+        INFIX_PRECEDENCE[BANG_EQUAL.ordinal()] = PREC_EQUALITY;
+        INFIX_PRECEDENCE[EQUAL_EQUAL.ordinal()] = PREC_EQUALITY;
+        INFIX_PRECEDENCE[GREATER.ordinal()] = PREC_COMPARISON;
+        INFIX_PRECEDENCE[GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+        INFIX_PRECEDENCE[LESS.ordinal()] = PREC_COMPARISON;
+        INFIX_PRECEDENCE[LESS_EQUAL.ordinal()] = PREC_COMPARISON;
+        INFIX_PRECEDENCE[MINUS.ordinal()] = PREC_TERM;
+        INFIX_PRECEDENCE[PLUS.ordinal()] = PREC_TERM;
+        INFIX_PRECEDENCE[ASTERISK.ordinal()] = PREC_FACTOR;
+        INFIX_PRECEDENCE[SLASH.ordinal()] = PREC_FACTOR;
+        INFIX_PRECEDENCE[LEFT_PAREN.ordinal()] = PREC_CALL;
+        INFIX_PRECEDENCE[DOT.ordinal()] = PREC_CALL;
+    }
+
+    // Tokens after which synchronize() can resume parsing.
+    private static final Set<TokenType> STATEMENT_START =
+            EnumSet.of(CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN);
+
+    private final Cursor tokens;
+    private final ErrorReporter errors;
     private int loopDepth = 0;
 
     private static class ParseError extends RuntimeException {}
 
-    private interface BinaryOpParser { Expr parse(); }
+    private interface TokenSource { Token next(); }
+
+    /**
+     * The parser's view of its tokens. It looks at most one token past the
+     * current one, and asks for Token objects only when it keeps them.
+     */
+    private interface Cursor {
+        TokenType peekType();
+        // Only called when the current token is not EOF.
+        TokenType peekNextType();
+        Token peek();
+        Token previous();
+        Object previousLiteral();
+        void advance();
+    }
 
     Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        this(tokens.iterator()::next, Lox.reporter);
+    }
+
+    /**
+     * Parses tokens as the scanner produces them, so the token stream
+     * is never held in memory as a whole. Errors go to the scanner's
+     * reporter.
+     */
+    Parser(Scanner scanner) {
+        this(scanner::nextToken, scanner.errors);
+    }
+
+    private Parser(TokenSource tokens, ErrorReporter errors) {
+        this.tokens = new StreamCursor(tokens);
+        this.errors = errors;
+    }
+
+    /** Parses a buffered source without making a Token for each token. */
+    Parser(TokenBuffer tokens) {
+        this.tokens = new BufferCursor(tokens);
+        this.errors = Lox.reporter;
+    }
+
+    private static final class StreamCursor implements Cursor {
+        private final TokenSource source;
+        private Token previous = null;
+        private Token current;
+        private Token next = null;
+
+        StreamCursor(TokenSource source) {
+            this.source = source;
+            this.current = source.next();
+        }
+
+        @Override
+        public TokenType peekType() {
+            return current.type;
+        }
+
+        @Override
+        public TokenType peekNextType() {
+            if (next == null) next = source.next();
+            return next.type;
+        }
+
+        @Override
+        public Token peek() {
+            return current;
+        }
+
+        @Override
+        public Token previous() {
+            return previous;
+        }
+
+        @Override
+        public Object previousLiteral() {
+            return previous.literal;
+        }
+
+        @Override
+        public void advance() {
+            previous = current;
+            current = next != null ? next : source.next();
+            next = null;
+        }
+    }
+
+    private static final class BufferCursor implements Cursor {
+        private final TokenBuffer tokens;
+        private int current = 0;
+
+        BufferCursor(TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public TokenType peekType() {
+            return tokens.type(current);
+        }
+
+        @Override
+        public TokenType peekNextType() {
+            return tokens.type(current + 1);
+        }
+
+        @Override
+        public Token peek() {
+            return tokens.token(current);
+        }
+
+        @Override
+        public Token previous() {
+            return tokens.token(current - 1);
+        }
+
+        @Override
+        public Object previousLiteral() {
+            return tokens.literal(current - 1);
+        }
+
+        @Override
+        public void advance() {
+            current++;
+        }
     }
 
     List<Stmt> parse() {
@@ -44,7 +201,8 @@ public class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect class name.");
+        consume(IDENTIFIER, "Expect class name.");
+        Token name = previous();
 
         Expr.Var superclass = null;
         if (match(LESS)) {
@@ -64,12 +222,14 @@ public class Parser {
     }
 
     private Stmt.Fun function(String kind) {
-        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
         return new Stmt.Fun(name, functionBody(kind));
     }
 
     private Expr.Fun functionBody(String kind) {
         consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        int line = previous().line;
 
         List<Token> params = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
@@ -77,18 +237,30 @@ public class Parser {
                 if (params.size() >= 255) {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
-                params.add(consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                params.add(previous());
             } while (match(COMMA));
         }
 
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
-        return new Expr.Fun(params, body);
+
+        // A loop around the function does not enclose its body.
+        int enclosingLoopDepth = loopDepth;
+        try {
+            loopDepth = 0;
+            List<Stmt> body = block();
+            Expr.Fun function = new Expr.Fun(params, body);
+            function.line = line;
+            return function;
+        } finally {
+            loopDepth = enclosingLoopDepth;
+        }
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -227,114 +399,123 @@ public class Parser {
 
     private Expr expression() {
         //if (match(LEFT_PAREN)) return new Expr.Sequence(sequence());
-        return assignment();
+        return parsePrecedence(PREC_ASSIGNMENT);
     }
 
     private List<Expr> sequence() {
         List<Expr> expressions = new ArrayList<>();
          while (!check(RIGHT_PAREN) && !isAtEnd()) {
-             expressions.add(assignment());
+             expressions.add(parsePrecedence(PREC_ASSIGNMENT));
          }
         consume(RIGHT_PAREN, "Expect ')' after expression sequence.");
          return expressions;
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Var var) {
-                return new Expr.Assign(var.name, value);
-            } else if (expr instanceof Expr.Get get) {
-                return new Expr.Set(get.object, get.name, value);
-            }
-
-            throw error(equals, "Invalid assignment target.");
-        }
-
-        return expr;
-    }
+    /**
+     * Parses an expression whose operators all bind at least as tightly as
+     * the given precedence. Each turn of the loop folds one infix or
+     * postfix operator into the expression so far.
+     */
+    private Expr parsePrecedence(int precedence) {
+        Expr expr = prefix();
 
-    private Expr or() {
-        Expr left = and();
+        for (;;) {
+            TokenType type = tokens.peekType();
+            int infixPrecedence = INFIX_PRECEDENCE[type.ordinal()];
+            if (infixPrecedence == PREC_NONE || infixPrecedence < precedence) return expr;
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            left = new Expr.Logical(left, operator, right);
-        }
-
-        return left;
-    }
-
-    private Expr and() {
-        Expr left = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            left = new Expr.Logical(left, operator, right);
+            advance();
+            expr = infix(expr, type, infixPrecedence);
         }
-
-        return left;
     }
 
-    private Expr parseBinaryExpression(BinaryOpParser parser, TokenType... operators) {
-        Expr left = parser.parse();
-
-        while(match(operators)) {
-            Token operator = previous();
-            Expr right = parser.parse();
-            left = new Expr.Binary(left, operator, right);
+    private Expr prefix() {
+        switch (tokens.peekType()) {
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(tokens.previousLiteral());
+            case SUPER: {
+                advance();
+                Token keyword = previous();
+                consume(DOT, "Expect '.' after 'super'.");
+                consume(IDENTIFIER, "Expect superclass method name.");
+                return new Expr.Super(keyword, previous());
+            }
+            case THIS:
+                advance();
+                return new Expr.This(previous());
+            case IDENTIFIER:
+                advance();
+                return new Expr.Var(previous());
+            case FUN:
+                advance();
+                return functionBody("function");
+            case LEFT_PAREN: {
+                advance();
+                Expr expr = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
+            case BANG:
+            case MINUS: {
+                advance();
+                Token operator = previous();
+                Expr right = parsePrecedence(PREC_UNARY);
+                return new Expr.Unary(operator, right);
+            }
+            default:
+                throw error(peek(), "Expect expression.");
         }
-
-        return left;
-    }
-
-    private Expr equality() {
-        return parseBinaryExpression(this::comparison, BANG_EQUAL, EQUAL_EQUAL);
-    }
-
-    private Expr comparison() {
-        return parseBinaryExpression(this::term, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
     }
 
-    private Expr term() {
-        return parseBinaryExpression(this::factor, MINUS, PLUS);
-    }
-
-    private Expr factor() {
-        return parseBinaryExpression(this::unary, ASTERISK, SLASH);
-    }
-
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+    // The operator has just been consumed.
+    private Expr infix(Expr left, TokenType type, int precedence) {
+        switch (type) {
+            case EQUAL:
+                return assignment(left);
+            case LEFT_PAREN:
+                return finishCall(left);
+            case DOT:
+                consume(IDENTIFIER, "Expect property name after '.'.");
+                return new Expr.Get(left, previous());
+            case OR:
+            case AND: {
+                Token operator = previous();
+                Expr right = parsePrecedence(precedence + 1);
+                return new Expr.Logical(left, operator, right);
+            }
+            default: {
+                Token operator = previous();
+                Expr right = parsePrecedence(precedence + 1);
+                return new Expr.Binary(left, operator, right);
+            }
         }
-
-        return call();
     }
 
-    private Expr call() {
-        Expr expr = primary();
+    private Expr assignment(Expr target) {
+        // The '=' is only needed to report a bad target.
+        boolean valid = target instanceof Expr.Var || target instanceof Expr.Get;
+        Token equals = valid ? null : previous();
+        // Assignment is right-associative.
+        Expr value = parsePrecedence(PREC_ASSIGNMENT);
 
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
-            }
+        if (target instanceof Expr.Var var) {
+            return new Expr.Assign(var.name, value);
+        } else if (target instanceof Expr.Get get) {
+            return new Expr.Set(get.object, get.name, value);
         }
 
-        return expr;
+        throw error(equals, "Invalid assignment target.");
     }
 
     private Expr finishCall(Expr callee) {
@@ -347,51 +528,21 @@ public class Parser {
                 args.add(expression());
             } while (match(COMMA));
         }
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
-        return new Expr.Call(callee, paren, args);
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return new Expr.Call(callee, previous(), args);
     }
 
-    private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(SUPER)) {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
-
-        if (match(THIS)) return new Expr.This(previous());
-
-        if (match(IDENTIFIER)) {
-            return new Expr.Var(previous());
-        }
-
-        if (match(FUN)) return functionBody("function");
-
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
         }
 
-        throw error(peek(), "Expect expression.");
-    }
-
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
-
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -401,28 +552,16 @@ public class Parser {
         while(!isAtEnd()) {
             if (previous().type == SEMICOLON) return;
 
-            switch (peek().type) {
-                case CLASS:
-                case FUN:
-                case VAR:
-                case FOR:
-                case IF:
-                case WHILE:
-                case PRINT:
-                case RETURN:
-                    return;
-            }
+            if (STATEMENT_START.contains(tokens.peekType())) return;
 
             advance();
         }
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
@@ -430,29 +569,29 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.peekType() == type;
     }
 
     private boolean checkNext(TokenType type) {
         if (isAtEnd()) return false;
-        if (tokens.get(current + 1).type == EOF) return false;
-        return tokens.get(current + 1).type == type;
+        TokenType next = tokens.peekNextType();
+        if (next == EOF) return false;
+        return next == type;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) current ++;
-        return previous();
+    private void advance() {
+        if (!isAtEnd()) tokens.advance();
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.peekType() == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 }
@@ -0,0 +1,31 @@
+package org.something.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One phase of running a script: scan, parse, resolve, optimize, load
+ * from the program cache, or interpret. A file is scanned as it is parsed,
+ * so only a REPL line has a scan phase of its own.
+ */
+@Name("org.something.lox.Phase")
+@Label("Lox Phase")
+@Category("Lox")
+@Description("A phase of compiling or running a Lox script")
+@StackTrace(false)
+@Threshold("0 ms")
+final class PhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+
+    static PhaseEvent start(String phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,34 @@
+package org.something.lox;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Watches the calls a Lox program makes, for --profile and --sample. The
+ * interpreter only calls in when a profiler is attached, so an unprofiled
+ * run pays a null check per call.
+ */
+abstract class Profiler {
+    /**
+     * A call begins. The key identifies the function declaration, class or
+     * native; the name and declaration line are how it is shown. Natives
+     * have line 0.
+     */
+    abstract void enter(Object key, String name, int line);
+
+    // The innermost call ends.
+    abstract void exit();
+
+    // A runtime error leaves calls on the stack; they end where it was thrown.
+    abstract void unwind();
+
+    // Stops profiling and reports what was seen.
+    abstract void finish() throws IOException;
+
+    Object callNative(Interpreter interpreter, LoxCallable function, List<Object> args) {
+        enter(function, function.name(), 0);
+        Object result = function.call(interpreter, args);
+        exit();
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package org.something.lox;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A resolved and optimized program that any number of isolates can run
+ * at the same time. Together with {@link Isolate} this is the API for
+ * embedding Lox in a Java server: compile each script once, then run it
+ * in one isolate per tenant.
+ *
+ * The tree never changes after compilation; running it only writes
+ * specializations and Jit state on its nodes. Specializations deoptimize
+ * the same way whoever wins, and Jit compilation happens once per
+ * function, so sharing the tree is safe. Inline caches hold one isolate's
+ * shapes and methods, so each isolate keeps its own.
+ */
+public final class Program {
+    final List<Stmt> statements;
+    private final List<String> errors;
+
+    private Program(List<Stmt> statements, List<String> errors) {
+        this.statements = statements;
+        this.errors = errors;
+    }
+
+    /** Compiles a script with every optimization on. */
+    public static Program compile(String source) {
+        return compile(source, Optimizer.PROPAGATE);
+    }
+
+    /** Compiles a script at an optimization level from 0 to 2, like -O0 to -O2. */
+    public static Program compile(String source, int optimizationLevel) {
+        return compile(new StringReader(source), optimizationLevel);
+    }
+
+    /**
+     * Compiles a script read to its end from source. Compile errors do not
+     * throw; they are returned by {@link #errors()}.
+     */
+    public static Program compile(Reader source, int optimizationLevel) {
+        List<String> errors = new ArrayList<>();
+        ErrorReporter reporter = (line, where, message) ->
+                errors.add(ErrorReporter.format(line, where, message));
+
+        List<Stmt> statements = new Parser(new Scanner(source, reporter)).parse();
+        if (errors.isEmpty()) {
+            new Resolver(reporter).resolve(statements);
+        }
+        if (!errors.isEmpty()) {
+            return new Program(null, Collections.unmodifiableList(errors));
+        }
+
+        statements = new Optimizer(optimizationLevel).optimize(statements);
+        return new Program(Collections.unmodifiableList(statements), List.of());
+    }
+
+    public boolean hadError() {
+        return !errors.isEmpty();
+    }
+
+    /** The compile errors, one line each, or an empty list. */
+    public List<String> errors() {
+        return errors;
+    }
+}
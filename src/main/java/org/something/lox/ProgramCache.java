@@ -0,0 +1,88 @@
+package org.something.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Directory of resolved and optimized programs in the .loxc format, named
+ * by a hash of the script's source. A script that has not changed since
+ * its last run is loaded from here without scanning, parsing or resolving.
+ */
+final class ProgramCache {
+    private final Path directory;
+    private final int level;
+
+    ProgramCache(Path directory, int level) {
+        this.directory = directory;
+        this.level = level;
+    }
+
+    static Path defaultDirectory() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        if (cacheHome == null || cacheHome.isEmpty()) {
+            return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+        }
+        return Paths.get(cacheHome, "jlox");
+    }
+
+    /**
+     * Returns the cached program for this source, or null on a miss. An
+     * entry that cannot be read counts as a miss and is written again.
+     */
+    List<Stmt> load(ByteBuffer source) {
+        Path file = fileFor(source);
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping outlives the channel; lazy function bodies read from it.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ProgramReader.read(buffer, level);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    void store(ByteBuffer source, List<Stmt> program) {
+        Path file = fileFor(source);
+        try {
+            Files.createDirectories(directory);
+            // Entries appear whole, even with other processes reading them.
+            Path temp = Files.createTempFile(directory, "jlox", ".tmp");
+            try {
+                Files.write(temp, ProgramWriter.write(program, level));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // Running without a cache only costs the front-end work.
+        }
+    }
+
+    private Path fileFor(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) ProgramWriter.VERSION);
+            digest.update((byte) level);
+            digest.update(source.duplicate());
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest()) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(".loxc").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
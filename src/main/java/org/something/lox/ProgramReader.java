@@ -0,0 +1,285 @@
+package org.something.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.something.lox.ProgramWriter.*;
+
+/**
+ * Reads a program written by {@link ProgramWriter}, usually straight from a
+ * memory-mapped file. Top-level statements are decoded up front; function
+ * bodies are decoded when they are first used.
+ */
+final class ProgramReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer buffer;
+    private final String[] strings;
+
+    private ProgramReader(ByteBuffer buffer, String[] strings) {
+        this.buffer = buffer;
+        this.strings = strings;
+    }
+
+    /**
+     * Returns the program, or null when the buffer does not hold a whole
+     * program of this version written at the given optimization level.
+     * The checksum covers the function bodies too, so once this returns,
+     * decoding them later cannot fail.
+     */
+    static List<Stmt> read(ByteBuffer buffer, int level) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.get() != level) {
+            return null;
+        }
+
+        int length = buffer.getInt();
+        int expected = buffer.getInt();
+        if (length != buffer.remaining()) return null;
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.duplicate());
+        if ((int) checksum.getValue() != expected) return null;
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[buffer.getInt()];
+            buffer.get(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        return new ProgramReader(buffer, strings).statements();
+    }
+
+    /**
+     * A function body that decodes itself on first use. It keeps its own
+     * view of the buffer, so bodies can load in any order, and decodes
+     * under a lock, since isolates on other threads may call it too.
+     */
+    private static final class LazyBody extends AbstractList<Stmt> {
+        private ProgramReader reader;
+        private volatile List<Stmt> statements = null;
+
+        LazyBody(ProgramReader reader) {
+            this.reader = reader;
+        }
+
+        private List<Stmt> load() {
+            List<Stmt> loaded = statements;
+            if (loaded == null) {
+                synchronized (this) {
+                    if (statements == null) {
+                        statements = reader.statements();
+                        reader = null;
+                    }
+                    loaded = statements;
+                }
+            }
+            return loaded;
+        }
+
+        @Override
+        public Stmt get(int index) {
+            return load().get(index);
+        }
+
+        @Override
+        public int size() {
+            return load().size();
+        }
+
+        @Override
+        public Iterator<Stmt> iterator() {
+            return load().iterator();
+        }
+    }
+
+    private List<Stmt> statements() {
+        int count = buffer.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(stmt());
+        }
+        return statements;
+    }
+
+    private List<Expr> expressions() {
+        int count = buffer.getInt();
+        List<Expr> expressions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            expressions.add(expr());
+        }
+        return expressions;
+    }
+
+    private Stmt stmt() {
+        int tag = buffer.get();
+        switch (tag) {
+            case NONE:
+                return null;
+            case BLOCK: {
+                Stmt.Block block = new Stmt.Block(statements());
+                block.slots = buffer.getInt();
+                return block;
+            }
+            case EXPRESSION:
+                return new Stmt.Expression(expr());
+            case CLASS: {
+                Token name = token();
+                Expr.Var superclass = (Expr.Var) expr();
+                int count = buffer.getInt();
+                List<Stmt.Fun> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    Token methodName = token();
+                    methods.add(new Stmt.Fun(methodName, (Expr.Fun) expr()));
+                }
+                return new Stmt.Class(name, superclass, methods);
+            }
+            case FUN_STMT: {
+                Token name = token();
+                return new Stmt.Fun(name, (Expr.Fun) expr());
+            }
+            case IF: {
+                Expr condition = expr();
+                Stmt thenBranch = stmt();
+                return new Stmt.If(condition, thenBranch, stmt());
+            }
+            case PRINT:
+                return new Stmt.Print(expr());
+            case VAR_STMT: {
+                Token name = token();
+                Stmt.Var var = new Stmt.Var(name, expr());
+                var.assigned = buffer.get() != 0;
+                return var;
+            }
+            case WHILE: {
+                Expr condition = expr();
+                return new Stmt.While(condition, stmt());
+            }
+            case RETURN: {
+                Token keyword = token();
+                Stmt.Return stmt = new Stmt.Return(keyword, expr());
+                stmt.tailCall = buffer.get() != 0;
+                return stmt;
+            }
+            case BREAK:
+                return new Stmt.Break();
+            default:
+                throw new IllegalStateException("Unknown statement tag " + tag + ".");
+        }
+    }
+
+    private Expr expr() {
+        int tag = buffer.get();
+        switch (tag) {
+            case NONE:
+                return null;
+            case SEQUENCE:
+                return new Expr.Sequence(expressions());
+            case ASSIGN: {
+                Token name = token();
+                Expr.Assign assign = new Expr.Assign(name, expr());
+                assign.depth = buffer.getInt();
+                assign.slot = buffer.getInt();
+                return assign;
+            }
+            case BINARY: {
+                Expr left = expr();
+                Token operator = token();
+                return new Expr.Binary(left, operator, expr());
+            }
+            case GROUPING:
+                return new Expr.Grouping(expr());
+            case LITERAL:
+                return new Expr.Literal(literal());
+            case LOGICAL: {
+                Expr left = expr();
+                Token operator = token();
+                return new Expr.Logical(left, operator, expr());
+            }
+            case UNARY: {
+                Token operator = token();
+                return new Expr.Unary(operator, expr());
+            }
+            case VAR: {
+                Expr.Var var = new Expr.Var(token());
+                var.depth = buffer.getInt();
+                var.slot = buffer.getInt();
+                return var;
+            }
+            case CALL: {
+                Expr callee = expr();
+                Token paren = token();
+                return new Expr.Call(callee, paren, expressions());
+            }
+            case GET: {
+                Expr object = expr();
+                return new Expr.Get(object, token());
+            }
+            case SET: {
+                Expr object = expr();
+                Token name = token();
+                return new Expr.Set(object, name, expr());
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(token());
+                expr.depth = buffer.getInt();
+                expr.slot = buffer.getInt();
+                return expr;
+            }
+            case SUPER: {
+                Token keyword = token();
+                Expr.Super expr = new Expr.Super(keyword, token());
+                expr.depth = buffer.getInt();
+                return expr;
+            }
+            case FUN:
+                return function();
+            default:
+                throw new IllegalStateException("Unknown expression tag " + tag + ".");
+        }
+    }
+
+    private Expr.Fun function() {
+        int count = buffer.getInt();
+        List<Token> parameters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            parameters.add(token());
+        }
+        int slots = buffer.getInt();
+        boolean captured = buffer.get() != 0;
+        int line = buffer.getInt();
+
+        // The body is read through a view of its own; this reader skips it.
+        int length = buffer.getInt();
+        ByteBuffer body = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+
+        Expr.Fun function = new Expr.Fun(parameters, new LazyBody(new ProgramReader(body, strings)));
+        function.slots = slots;
+        function.captured = captured;
+        function.line = line;
+        return function;
+    }
+
+    private Object literal() {
+        int tag = buffer.get();
+        switch (tag) {
+            case NIL: return null;
+            case TRUE: return true;
+            case FALSE: return false;
+            case NUMBER: return buffer.getDouble();
+            case STRING: return strings[buffer.getInt()];
+            default: throw new IllegalStateException("Unknown literal tag " + tag + ".");
+        }
+    }
+
+    private Token token() {
+        TokenType type = TOKEN_TYPES[buffer.get()];
+        String lexeme = strings[buffer.getInt()];
+        return new Token(type, lexeme, null, buffer.getInt());
+    }
+}
@@ -0,0 +1,418 @@
+package org.something.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Serializes a resolved program into the .loxc format read by
+ * {@link ProgramReader}. Resolution results travel with the nodes; caches
+ * and specializations do not, since they are rebuilt at run time.
+ *
+ * A file is the header, a table of every string used, and the program's
+ * statements. Function bodies are prefixed with their length so a reader
+ * can skip them until the function is first called. The header ends with
+ * the length and a CRC-32 of the rest, so a damaged file is rejected when
+ * it is opened rather than when a function body is decoded.
+ */
+final class ProgramWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4C4F5843; // "LOXC"
+    // Bump whenever the AST, this encoding or what the Optimizer folds
+    // changes, since cached programs hold folded literals.
+    static final int VERSION = 4;
+
+    // Node tags. Zero stands for a missing node.
+    static final int NONE = 0;
+
+    static final int BLOCK = 1;
+    static final int EXPRESSION = 2;
+    static final int CLASS = 3;
+    static final int FUN_STMT = 4;
+    static final int IF = 5;
+    static final int PRINT = 6;
+    static final int VAR_STMT = 7;
+    static final int WHILE = 8;
+    static final int RETURN = 9;
+    static final int BREAK = 10;
+
+    static final int SEQUENCE = 1;
+    static final int ASSIGN = 2;
+    static final int BINARY = 3;
+    static final int GROUPING = 4;
+    static final int LITERAL = 5;
+    static final int LOGICAL = 6;
+    static final int UNARY = 7;
+    static final int VAR = 8;
+    static final int CALL = 9;
+    static final int GET = 10;
+    static final int SET = 11;
+    static final int THIS = 12;
+    static final int SUPER = 13;
+    static final int FUN = 14;
+
+    // Literal value tags.
+    static final int NIL = 0;
+    static final int TRUE = 1;
+    static final int FALSE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private DataOutputStream out;
+
+    private ProgramWriter() {}
+
+    static byte[] write(List<Stmt> program, int level) {
+        ProgramWriter writer = new ProgramWriter();
+        byte[] statements = writer.section(() -> writer.statements(program));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream file = new DataOutputStream(bytes);
+        try {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+            DataOutputStream body = new DataOutputStream(bodyBytes);
+            body.writeInt(writer.strings.size());
+            for (String string : writer.strings) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                body.writeInt(utf8.length);
+                body.write(utf8);
+            }
+            body.write(statements);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(bodyBytes.toByteArray());
+
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeByte(level);
+            file.writeInt(bodyBytes.size());
+            file.writeInt((int) checksum.getValue());
+            bodyBytes.writeTo(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Writes into a buffer of its own, to be placed or length-prefixed later.
+    private byte[] section(Runnable writes) {
+        DataOutputStream enclosing = out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        writes.run();
+        out = enclosing;
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeByte(BLOCK);
+        statements(stmt.statements);
+        writeInt(stmt.slots);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        writeByte(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        writeByte(CLASS);
+        token(stmt.name);
+        write(stmt.superclass);
+        writeInt(stmt.methods.size());
+        for (Stmt.Fun method : stmt.methods) {
+            token(method.name);
+            write(method.function);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        writeByte(FUN_STMT);
+        token(stmt.name);
+        write(stmt.function);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        writeByte(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        writeByte(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        writeByte(VAR_STMT);
+        token(stmt.name);
+        write(stmt.initializer);
+        writeBoolean(stmt.assigned);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        writeByte(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        writeByte(RETURN);
+        token(stmt.keyword);
+        write(stmt.value);
+        writeBoolean(stmt.tailCall);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        writeByte(BREAK);
+        return null;
+    }
+
+    @Override
+    public Void visitSequenceExpr(Expr.Sequence expr) {
+        writeByte(SEQUENCE);
+        expressions(expr.expressions);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeByte(ASSIGN);
+        token(expr.name);
+        write(expr.value);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        writeByte(BINARY);
+        write(expr.left);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        writeByte(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        writeByte(LITERAL);
+        Object value = expr.value;
+        if (value == null) {
+            writeByte(NIL);
+        } else if (value instanceof Boolean bool) {
+            writeByte(bool ? TRUE : FALSE);
+        } else if (value instanceof Double number) {
+            writeByte(NUMBER);
+            writeDouble(number);
+        } else {
+            writeByte(STRING);
+            string((String) value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        writeByte(LOGICAL);
+        write(expr.left);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        writeByte(UNARY);
+        token(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVarExpr(Expr.Var expr) {
+        writeByte(VAR);
+        token(expr.name);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        writeByte(CALL);
+        write(expr.callee);
+        token(expr.paren);
+        expressions(expr.args);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        writeByte(GET);
+        write(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        writeByte(SET);
+        write(expr.object);
+        token(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        writeByte(THIS);
+        token(expr.keyword);
+        writeInt(expr.depth);
+        writeInt(expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        writeByte(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitFunExpr(Expr.Fun expr) {
+        writeByte(FUN);
+        writeInt(expr.parameters.size());
+        for (Token parameter : expr.parameters) {
+            token(parameter);
+        }
+        writeInt(expr.slots);
+        writeBoolean(expr.captured);
+        writeInt(expr.line);
+
+        byte[] body = section(() -> statements(expr.body));
+        writeInt(body.length);
+        writeBytes(body);
+        return null;
+    }
+
+    private void statements(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+    }
+
+    private void expressions(List<Expr> expressions) {
+        writeInt(expressions.size());
+        for (Expr expression : expressions) {
+            write(expression);
+        }
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            writeByte(NONE);
+        } else {
+            stmt.accept(this);
+        }
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            writeByte(NONE);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void token(Token token) {
+        writeByte(token.type.ordinal());
+        string(token.lexeme);
+        writeInt(token.line);
+    }
+
+    private void string(String string) {
+        Integer index = stringIndex.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndex.put(string, index);
+        }
+        writeInt(index);
+    }
+
+    private void writeByte(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    private void writeInt(int value) {
+        try {
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeDouble(double value) {
+        try {
+            out.writeDouble(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
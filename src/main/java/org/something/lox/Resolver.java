@@ -1,18 +1,45 @@
 package org.something.lox;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter errors;
+    private final Stack<Map<String, Variable>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // Whether the function being resolved contains a closure.
+    private boolean sawClosure = false;
+    // Global names this code declares, and uses while it loads, for ordering
+    // multi-file programs. Uses inside a top-level function or class wait
+    // until it is called, so they are kept under its name instead.
+    final Set<String> declaredGlobals = new HashSet<>();
+    final Set<String> usedGlobals = new HashSet<>();
+    final Map<String, Set<String>> deferredGlobals = new HashMap<>();
+    // Where the global uses of the code being resolved are recorded.
+    private Set<String> globalUses = usedGlobals;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver() {
+        this(Lox.reporter);
+    }
+
+    Resolver(ErrorReporter errors) {
+        this.errors = errors;
+    }
+
+    private static class Variable {
+        final int slot;
+        boolean defined = false;
+        // The declaring statement, for variables declared with 'var'.
+        Stmt.Var declaration = null;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
     }
 
     private enum FunctionType {
@@ -32,6 +59,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
+        stmt.slots = scopes.peek().size();
         endScope();
         return null;
     }
@@ -39,7 +67,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         declare(stmt.name);
-        if (stmt.initializer != null) {
+        if (!scopes.isEmpty()) scopes.peek().get(stmt.name.lexeme).declaration = stmt;
+        if (stmt.initializer instanceof Expr.Fun && scopes.isEmpty()) {
+            // A global holding a lambda is deferred like a declared function.
+            Set<String> enclosingUses = deferUses(stmt.name);
+            resolve(stmt.initializer);
+            globalUses = enclosingUses;
+        } else if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
@@ -56,11 +90,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarExpr(Expr.Var expr) {
         if (!scopes.isEmpty()
-                && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+                && scopes.peek().containsKey(expr.name.lexeme)
+                && !scopes.peek().get(expr.name.lexeme).defined) {
+            errors.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth != -1) {
+            Variable variable = variableOf(expr.name, expr.depth);
+            expr.slot = variable.slot;
+            expr.declaration = variable.declaration;
+        } else {
+            globalUses.add(expr.name.lexeme);
+        }
         return null;
     }
 
@@ -75,16 +117,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth != -1) {
+            Variable variable = variableOf(expr.name, expr.depth);
+            expr.slot = variable.slot;
+            if (variable.declaration != null) variable.declaration.assigned = true;
+        } else {
+            globalUses.add(expr.name.lexeme);
+        }
         return null;
     }
 
     @Override
     public Void visitFunStmt(Stmt.Fun stmt) {
+        Set<String> enclosingUses = scopes.isEmpty() ? deferUses(stmt.name) : globalUses;
         declare(stmt.name);
         define(stmt.name);
 
-        resolveFunction(stmt, FunctionType.FUNCTION);
+        resolveFunction(stmt.function, FunctionType.FUNCTION);
+        globalUses = enclosingUses;
         return null;
     }
 
@@ -98,12 +149,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
+        boolean topLevel = scopes.isEmpty();
         declare(stmt.name);
         define(stmt.name);
 
         if (stmt.superclass != null) {
             if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+                errors.error(stmt.superclass.name, "A class can't inherit from itself.");
             } else {
                 currentClass = ClassType.SUBCLASS;
                 resolve(stmt.superclass);
@@ -112,22 +164,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            defineImplicit("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
+        // Methods run when the class is called or its instances are used.
+        Set<String> enclosingUses = globalUses;
+        if (topLevel) {
+            deferUses(stmt.name);
+            // Inherited methods can run through this class too.
+            if (stmt.superclass != null) globalUses.add(stmt.superclass.name.lexeme);
+        }
         for (Stmt.Fun method : stmt.methods) {
             FunctionType delcaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
                 delcaration = FunctionType.INITIALIZER;
             }
-            resolveFunction(method, delcaration);
+            resolveFunction(method.function, delcaration);
         }
 
-        endScope();
-
+        globalUses = enclosingUses;
         if (stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
@@ -151,22 +206,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            errors.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                errors.error(stmt.keyword, "Can't return a value from an initializer.");
             }
 
             resolve(stmt.value);
+            // Nothing runs in a Lox function after its return, so any
+            // returned call is in tail position.
+            stmt.tailCall = currentFunction != FunctionType.NONE
+                    && stmt.value instanceof Expr.Call;
         }
         return null;
     }
 
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
-        //TODO Validate if break is not used outside a loop
+        // The parser already rejects a break outside a loop.
         return null;
     }
 
@@ -205,31 +264,30 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        if (expr.depth != -1) expr.slot = slotOf(expr.keyword, expr.depth);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            errors.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitFunExpr(Expr.Fun expr) {
-        beginScope();
-        resolve(expr.body);
-        endScope();
+        resolveFunction(expr, FunctionType.FUNCTION);
         return null;
     }
 
@@ -257,35 +315,63 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void resolveFunction(Stmt.Fun fun, FunctionType funType) {
+    private void resolveFunction(Expr.Fun function, FunctionType funType) {
         FunctionType enclosingFunction = currentFunction;
+        boolean enclosingSawClosure = sawClosure;
         currentFunction = funType;
+        sawClosure = false;
 
         beginScope();
-        for (Token param : fun.function.parameters) {
+        // Methods receive 'this' in the first slot of their own frame.
+        if (funType == FunctionType.METHOD || funType == FunctionType.INITIALIZER) {
+            defineImplicit("this");
+        }
+        for (Token param : function.parameters) {
             declare(param);
             define(param);
         }
-        resolve(fun.function.body);
+        resolve(function.body);
+        function.slots = scopes.peek().size();
+        function.captured = sawClosure;
         endScope();
 
         currentFunction = enclosingFunction;
+        // This function is itself a closure over the enclosing frame.
+        sawClosure = true;
+    }
+
+    // Records later global uses under a top-level name. Returns the set
+    // they went to before, for the caller to restore.
+    private Set<String> deferUses(Token name) {
+        Set<String> enclosingUses = globalUses;
+        globalUses = deferredGlobals.computeIfAbsent(name.lexeme, n -> new HashSet<>());
+        return enclosingUses;
     }
 
     private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
+        if (scopes.isEmpty()) {
+            declaredGlobals.add(name.lexeme);
+            return;
+        }
+        Map<String, Variable> scope = scopes.peek();
 
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Already variable with this name in this scope.");
+            errors.error(name, "Already variable with this name in this scope.");
+            return;
         }
 
-        scope.put(name.lexeme, false);
+        scope.put(name.lexeme, new Variable(scope.size()));
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
+    }
+
+    private void defineImplicit(String name) {
+        Variable variable = new Variable(scopes.peek().size());
+        variable.defined = true;
+        scopes.peek().put(name, variable);
     }
 
     private void beginScope() {
@@ -296,13 +382,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.pop();
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
+    }
+
+    private int slotOf(Token name, int depth) {
+        return variableOf(name, depth).slot;
+    }
+
+    private Variable variableOf(Token name, int depth) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme);
     }
 
     void resolve(List<Stmt> statements) {
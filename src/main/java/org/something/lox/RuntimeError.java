@@ -2,9 +2,25 @@ package org.something.lox;
 
 public class RuntimeError extends RuntimeException {
     final Token token;
+    final int line;
+    // File the error was raised in, when the program has several.
+    String source = null;
 
     RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.line;
+    }
+
+    RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
+    }
+
+    // How the error is shown to the user.
+    String report() {
+        String where = source == null ? "line " + line : source + " line " + line;
+        return getMessage() + "\n[" + where + "]";
     }
 }
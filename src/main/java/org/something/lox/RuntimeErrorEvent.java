@@ -0,0 +1,37 @@
+package org.something.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A runtime error that stopped a Lox program. Errors are rare, so every
+ * one is recorded. The event is committed where the error is reported, so
+ * the Java stack would only show that catch block; none is recorded, and
+ * the line says where in the script the error was raised.
+ */
+@Name("org.something.lox.RuntimeError")
+@Label("Lox Runtime Error")
+@Category("Lox")
+@Description("A runtime error that stopped a Lox program")
+@StackTrace(false)
+@Threshold("0 ms")
+final class RuntimeErrorEvent extends jdk.jfr.Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+
+    static void emit(RuntimeError error) {
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (!event.isEnabled()) return;
+
+        event.message = error.getMessage();
+        event.line = error.line;
+        event.commit();
+    }
+}
@@ -0,0 +1,141 @@
+package org.something.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the Lox call stack from a background thread, for --sample. The
+ * interpreter only pushes and pops names on a shadow stack, so small hot
+ * functions are not slowed down the way timing every call slows them.
+ *
+ * Samples are written in the collapsed-stack format that flame graph
+ * tools read: one line per distinct stack, frames from the outermost
+ * separated by semicolons, then the number of samples.
+ *
+ * The sampler reads the stack while the interpreter changes it. The depth
+ * is published with release and read with acquire, so every frame below it
+ * has been written, though a frame can be replaced while it is being read.
+ * An occasional sample may mix two stacks; over many samples that washes
+ * out.
+ */
+final class SamplingProfiler extends Profiler {
+    private static final VarHandle DEPTH;
+
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(SamplingProfiler.class, "depth", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private String[] names = new String[256];
+    private int[] lines = new int[256];
+    // Written only by the interpreter's thread.
+    private int depth = 0;
+
+    private final Path output;
+    private final long intervalNanos;
+    private final Thread sampler;
+    private volatile boolean running = false;
+    // Off while the program is compiled or waits for input.
+    private volatile boolean sampling = false;
+    // Samples by collapsed stack. Touched only by the sampler thread until
+    // it has stopped.
+    private final Map<String, Long> samples = new TreeMap<>();
+    private long sampleCount = 0;
+
+    SamplingProfiler(Path output, long intervalNanos) {
+        this.output = output;
+        this.intervalNanos = intervalNanos;
+        this.sampler = new Thread(this::sampleUntilStopped, "lox-sampler");
+        sampler.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        sampler.start();
+    }
+
+    void resume() {
+        sampling = true;
+    }
+
+    void pause() {
+        sampling = false;
+    }
+
+    @Override
+    void enter(Object key, String name, int line) {
+        int top = depth;
+        if (top == names.length) {
+            names = Arrays.copyOf(names, top * 2);
+            lines = Arrays.copyOf(lines, top * 2);
+        }
+        names[top] = name;
+        lines[top] = line;
+        DEPTH.setRelease(this, top + 1);
+    }
+
+    @Override
+    void exit() {
+        DEPTH.setRelease(this, depth - 1);
+    }
+
+    @Override
+    void unwind() {
+        DEPTH.setRelease(this, 0);
+    }
+
+    private void sampleUntilStopped() {
+        StringBuilder stack = new StringBuilder();
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            if (!running) break;
+            if (!sampling) continue;
+
+            int top = (int) DEPTH.getAcquire(this);
+            String[] names = this.names;
+            int[] lines = this.lines;
+
+            // Code outside any function is the root of every stack.
+            stack.setLength(0);
+            stack.append("<script>");
+            for (int i = 0; i < top; i++) {
+                stack.append(';').append(names[i]);
+                if (lines[i] != 0) stack.append(':').append(lines[i]);
+            }
+            samples.merge(stack.toString(), 1L, Long::sum);
+            sampleCount++;
+        }
+    }
+
+    // Stops sampling and writes the collapsed stacks.
+    @Override
+    void finish() throws IOException {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : samples.entrySet()) {
+                out.write(entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        System.err.println("Wrote " + sampleCount + " samples to " + output + ".");
+    }
+}
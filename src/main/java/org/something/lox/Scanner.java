@@ -1,52 +1,100 @@
 package org.something.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static org.something.lox.TokenType.*;
+
+/**
+ * Turns source text into tokens, one at a time. The source is read through
+ * a fixed window, so only the current lexeme has to fit in memory.
+ *
+ * Punctuation and keywords share constant lexemes, and names and numbers
+ * are interned, so the only strings a token allocates are new spellings
+ * and string literals.
+ */
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private int start = 0;
-    private int current = 0;
+    private static final int WINDOW_SIZE = 8192;
+
+    private final Reader source;
+    final ErrorReporter errors;
+    private final char[] window = new char[WINDOW_SIZE];
+    // Characters in window[position, limit) are read but not yet consumed.
+    private int position = 0;
+    private int limit = 0;
+    private boolean exhausted = false;
+    // Characters consumed so far, so the lexeme starts at offset - lexeme.length().
+    private int offset = 0;
+    private final StringBuilder lexeme = new StringBuilder();
+    private final SymbolTable symbols = new SymbolTable();
+    private Token token = null;
+    // Set while scanning into a TokenBuffer instead of making Tokens.
+    private TokenBuffer buffer = null;
     private int line = 1;
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-        keywords.put("break", BREAK);
-    }
 
     Scanner(String source) {
+        this(new StringReader(source));
+    }
+
+    Scanner(Reader source) {
+        this(source, Lox.reporter);
+    }
+
+    Scanner(Reader source, ErrorReporter errors) {
         this.source = source;
+        this.errors = errors;
+    }
+
+    /** Scans UTF-8 text, such as a memory-mapped file, without copying it. */
+    Scanner(ByteBuffer utf8) {
+        this(utf8, Lox.reporter);
+    }
+
+    Scanner(ByteBuffer utf8, ErrorReporter errors) {
+        this(new DecodingReader(utf8), errors);
     }
 
     List<Token> scanTokens() {
-        while(!isAtEnd()) {
-            start = current;
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != EOF);
+        return tokens;
+    }
+
+    /** Returns the next token, or EOF once the source runs out. */
+    Token nextToken() {
+        while (token == null) {
+            if (isAtEnd()) return new Token(EOF, "", null, line);
+            lexeme.setLength(0);
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        Token next = token;
+        token = null;
+        return next;
+    }
+
+    /** Scans the rest of the source into the buffer, ending with EOF. */
+    void scanInto(TokenBuffer tokens) {
+        buffer = tokens;
+        while (!isAtEnd()) {
+            lexeme.setLength(0);
+            scanToken();
+        }
+        tokens.add(EOF, offset, 0, line, null);
+        buffer = null;
     }
 
     private void scanToken() {
@@ -76,7 +124,7 @@ public class Scanner {
                 break;
             case '/':
                 if (match('/')) {
-                    while(peek() != '\n' && !isAtEnd()) advance();
+                    while(peek() != '\n' && !isAtEnd()) skip();
                 } else {
                     addToken(SLASH);
                 }
@@ -96,7 +144,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    errors.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -104,29 +152,61 @@ public class Scanner {
 
     private boolean match(char expected) {
         if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if(window[position] != expected) return false;
 
-        current++;
+        advance();
         return true;
     }
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return window[position];
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!fill(2)) return '\0';
+        return window[position + 1];
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !fill(1);
     }
 
     private char advance() {
-        current++;
-        return source.charAt(current - 1);
+        char c = skip();
+        lexeme.append(c);
+        return c;
+    }
+
+    // Consumes a character that is not part of any lexeme.
+    private char skip() {
+        fill(1);
+        offset++;
+        return window[position++];
+    }
+
+    // Makes sure the window holds at least count unconsumed characters,
+    // unless the source ends first.
+    private boolean fill(int count) {
+        if (limit - position >= count) return true;
+        if (exhausted) return false;
+
+        System.arraycopy(window, position, window, 0, limit - position);
+        limit -= position;
+        position = 0;
+        try {
+            while (limit < count) {
+                int read = source.read(window, limit, window.length - limit);
+                if (read < 0) {
+                    exhausted = true;
+                    return false;
+                }
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
     }
 
     private boolean isDigit(char c) {
@@ -146,11 +226,51 @@ public class Scanner {
     private void identifier() {
         while(isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
+        addToken(identifierType());
+    }
+
+    // Decides on keywords a character at a time, without building a string.
+    private TokenType identifierType() {
+        switch (lexeme.charAt(0)) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'b': return checkKeyword(1, "reak", BREAK);
+            case 'c': return checkKeyword(1, "lass", CLASS);
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (lexeme.length() > 1) {
+                    switch (lexeme.charAt(1)) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", IF);
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (lexeme.length() > 1) {
+                    switch (lexeme.charAt(1)) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
 
-        addToken(type);
+    private TokenType checkKeyword(int start, String rest, TokenType type) {
+        if (lexeme.length() != start + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (lexeme.charAt(start + i) != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private void number() {
@@ -162,8 +282,7 @@ public class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, Double.parseDouble(symbols.intern(lexeme)));
     }
 
     private void string() {
@@ -173,12 +292,12 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
+        String value = lexeme.substring(1, lexeme.length() - 1);
         addToken(STRING, value);
     }
 
@@ -187,7 +306,94 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        if (buffer != null) {
+            buffer.add(type, offset - lexeme.length(), lexeme.length(), line, literal);
+        } else {
+            token = new Token(type, text(type), literal, line);
+        }
+    }
+
+    private String text(TokenType type) {
+        switch (type) {
+            case IDENTIFIER:
+            case NUMBER:
+                return symbols.intern(lexeme);
+            case STRING:
+                return lexeme.toString();
+            default:
+                return lexemeOf(type);
+        }
+    }
+
+    // The lexeme of a punctuation or keyword token, which its type fixes.
+    static String lexemeOf(TokenType type) {
+        switch (type) {
+            case LEFT_PAREN: return "(";
+            case RIGHT_PAREN: return ")";
+            case LEFT_BRACE: return "{";
+            case RIGHT_BRACE: return "}";
+            case COMMA: return ",";
+            case DOT: return ".";
+            case MINUS: return "-";
+            case PLUS: return "+";
+            case SEMICOLON: return ";";
+            case SLASH: return "/";
+            case ASTERISK: return "*";
+            case BANG: return "!";
+            case BANG_EQUAL: return "!=";
+            case EQUAL: return "=";
+            case EQUAL_EQUAL: return "==";
+            case GREATER: return ">";
+            case GREATER_EQUAL: return ">=";
+            case LESS: return "<";
+            case LESS_EQUAL: return "<=";
+            case AND: return "and";
+            case BREAK: return "break";
+            case CLASS: return "class";
+            case ELSE: return "else";
+            case FALSE: return "false";
+            case FUN: return "fun";
+            case FOR: return "for";
+            case IF: return "if";
+            case NIL: return "nil";
+            case OR: return "or";
+            case PRINT: return "print";
+            case RETURN: return "return";
+            case SUPER: return "super";
+            case THIS: return "this";
+            case TRUE: return "true";
+            case VAR: return "var";
+            case WHILE: return "while";
+            case EOF: return "";
+            default: throw new IllegalArgumentException(type + " has no fixed lexeme.");
+        }
+    }
+
+    /** Decodes UTF-8 bytes a window at a time. */
+    private static final class DecodingReader extends Reader {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private boolean flushed = false;
+
+        DecodingReader(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (flushed) return -1;
+
+            CharBuffer out = CharBuffer.wrap(chars, offset, length);
+            decoder.decode(bytes, out, true);
+            if (!bytes.hasRemaining()) flushed = decoder.flush(out).isUnderflow();
+
+            int read = out.position() - offset;
+            return read == 0 && flushed ? -1 : read;
+        }
+
+        @Override
+        public void close() {}
     }
 }
@@ -0,0 +1,61 @@
+package org.something.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Field layout shared by every instance of a class that added the same
+ * fields in the same order. Each class owns a root shape, so a shape also
+ * identifies the class and the methods an instance can see.
+ */
+final class Shape {
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    private final String[] names;
+    private Map<String, Integer> index = null;
+    private Map<String, Shape> transitions = null;
+
+    Shape() {
+        this(new String[0]);
+    }
+
+    private Shape(String[] names) {
+        this.names = names;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    int indexOf(String name) {
+        if (names.length <= LINEAR_SEARCH_LIMIT) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+
+        if (index == null) {
+            index = new HashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                index.put(names[i], i);
+            }
+        }
+        Integer slot = index.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    Shape withField(String name) {
+        if (transitions == null) transitions = new HashMap<>();
+
+        Shape next = transitions.get(name);
+        if (next == null) {
+            String[] extended = Arrays.copyOf(names, names.length + 1);
+            extended[names.length] = name;
+            next = new Shape(extended);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
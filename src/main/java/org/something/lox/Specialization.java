@@ -0,0 +1,68 @@
+package org.something.lox;
+
+/**
+ * Forms that Binary, Unary and Logical nodes specialize into from the
+ * operand types they observe. A specialized form guards on those types and
+ * deoptimizes its node to GENERIC for good when the guard fails.
+ */
+enum Specialization {
+    UNINITIALIZED,
+    GENERIC,
+    // Binary.
+    NUMBER_ADD, NUMBER_SUBTRACT, NUMBER_MULTIPLY, NUMBER_DIVIDE,
+    NUMBER_GREATER, NUMBER_GREATER_EQUAL, NUMBER_LESS, NUMBER_LESS_EQUAL,
+    NUMBER_EQUAL, NUMBER_NOT_EQUAL,
+    STRING_CONCAT,
+    // Unary.
+    NUMBER_NEGATE, BOOLEAN_NOT,
+    // Logical.
+    BOOLEAN_CONDITION;
+
+    // Forms whose result is a number and can be evaluated unboxed.
+    boolean producesNumber() {
+        switch (this) {
+            case NUMBER_ADD:
+            case NUMBER_SUBTRACT:
+            case NUMBER_MULTIPLY:
+            case NUMBER_DIVIDE:
+            case NUMBER_NEGATE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static Specialization forBinary(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return NUMBER_ADD;
+                case MINUS: return NUMBER_SUBTRACT;
+                case ASTERISK: return NUMBER_MULTIPLY;
+                case SLASH: return NUMBER_DIVIDE;
+                case GREATER: return NUMBER_GREATER;
+                case GREATER_EQUAL: return NUMBER_GREATER_EQUAL;
+                case LESS: return NUMBER_LESS;
+                case LESS_EQUAL: return NUMBER_LESS_EQUAL;
+                case EQUAL_EQUAL: return NUMBER_EQUAL;
+                case BANG_EQUAL: return NUMBER_NOT_EQUAL;
+            }
+        }
+
+        if (operator == TokenType.PLUS && Interpreter.isString(left) && Interpreter.isString(right)) {
+            return STRING_CONCAT;
+        }
+
+        return GENERIC;
+    }
+
+    static Specialization forUnary(TokenType operator, Object right) {
+        if (operator == TokenType.MINUS && right instanceof Double) return NUMBER_NEGATE;
+        if (operator == TokenType.BANG && right instanceof Boolean) return BOOLEAN_NOT;
+        return GENERIC;
+    }
+
+    static Specialization forLogical(Object left) {
+        if (left instanceof Boolean) return BOOLEAN_CONDITION;
+        return GENERIC;
+    }
+}
@@ -26,6 +26,7 @@ abstract class Stmt{
         }
 
         final List<Stmt> statements;
+        int slots = 0;
     }
     static class Expression extends Stmt {
         Expression (Expr expression) {
@@ -110,6 +111,7 @@ abstract class Stmt{
 
         final Token name;
         final Expr initializer;
+        boolean assigned = false;
     }
     static class While extends Stmt {
         While (Expr condition, Stmt body) {
@@ -138,6 +140,7 @@ abstract class Stmt{
 
         final Token keyword;
         final Expr value;
+        boolean tailCall = false;
     }
     static class Break extends Stmt {
         Break () {
@@ -0,0 +1,64 @@
+package org.something.lox;
+
+/**
+ * Canonical strings for the names and numbers in a source. Each distinct
+ * spelling becomes one String, so later stages can compare names by
+ * identity and a program keeps a single copy of every name it uses.
+ *
+ * Lookups take the characters straight from the scanner's buffer and only
+ * allocate for spellings that have not been seen yet.
+ */
+final class SymbolTable {
+    // Open addressing with linear probing; the length is a power of two.
+    private String[] symbols = new String[256];
+    private int count = 0;
+
+    String intern(CharSequence chars) {
+        return intern(chars, 0, chars.length());
+    }
+
+    /** Interns the characters in chars[start, end). */
+    String intern(CharSequence chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int mask = symbols.length - 1;
+        int index = hash & mask;
+        for (String symbol; (symbol = symbols[index]) != null; index = (index + 1) & mask) {
+            // String caches its hash code, which matches hash().
+            if (symbol.hashCode() == hash && matches(symbol, chars, start, end)) return symbol;
+        }
+
+        String symbol = chars.subSequence(start, end).toString();
+        symbols[index] = symbol;
+        if (++count * 4 > symbols.length * 3) grow();
+        return symbol;
+    }
+
+    private void grow() {
+        String[] old = symbols;
+        symbols = new String[old.length * 2];
+        int mask = symbols.length - 1;
+        for (String symbol : old) {
+            if (symbol == null) continue;
+            int index = symbol.hashCode() & mask;
+            while (symbols[index] != null) index = (index + 1) & mask;
+            symbols[index] = symbol;
+        }
+    }
+
+    // The same function as String.hashCode().
+    private static int hash(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean matches(String symbol, CharSequence chars, int start, int end) {
+        if (symbol.length() != end - start) return false;
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != chars.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
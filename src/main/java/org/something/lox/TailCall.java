@@ -0,0 +1,20 @@
+package org.something.lox;
+
+import java.util.List;
+
+/**
+ * A call in tail position, returned by the Interpreter instead of being made
+ * so the trampoline in {@link LoxFunction#invoke} runs it on the current
+ * Java frame.
+ */
+final class TailCall {
+    final LoxFunction function;
+    final LoxInstance receiver;
+    final List<Object> args;
+
+    TailCall(LoxFunction function, LoxInstance receiver, List<Object> args) {
+        this.function = function;
+        this.receiver = receiver;
+        this.args = args;
+    }
+}
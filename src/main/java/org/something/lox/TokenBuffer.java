@@ -0,0 +1,102 @@
+package org.something.lox;
+
+import java.util.Arrays;
+
+import static org.something.lox.TokenType.*;
+
+/**
+ * The tokens of a source held in parallel arrays rather than as Token
+ * objects. A token is an index: its type, where its lexeme starts in the
+ * source, the lexeme's length and its line. Values of number and string
+ * literals sit in a side table, since most tokens have none.
+ *
+ * The parser reads types straight from the arrays and asks for a Token
+ * only when the tree keeps one, such as a name or an operator.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final String source;
+    private final SymbolTable symbols = new SymbolTable();
+
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+
+    // Literal values, with the indexes of their tokens in ascending order.
+    private Object[] literals = new Object[32];
+    private int[] literalTokens = new int[32];
+    private int literalCount = 0;
+
+    TokenBuffer(String source) {
+        this.source = source;
+    }
+
+    static TokenBuffer scan(String source) {
+        TokenBuffer tokens = new TokenBuffer(source);
+        new Scanner(source).scanInto(tokens);
+        return tokens;
+    }
+
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+
+        if (literal != null) {
+            if (literalCount == literals.length) {
+                literals = Arrays.copyOf(literals, literalCount * 2);
+                literalTokens = Arrays.copyOf(literalTokens, literalCount * 2);
+            }
+            literals[literalCount] = literal;
+            literalTokens[literalCount] = count;
+            literalCount++;
+        }
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    Object literal(int index) {
+        TokenType type = type(index);
+        if (type != NUMBER && type != STRING) return null;
+
+        int slot = Arrays.binarySearch(literalTokens, 0, literalCount, index);
+        return slot >= 0 ? literals[slot] : null;
+    }
+
+    String lexeme(int index) {
+        TokenType type = type(index);
+        int start = starts[index];
+        int end = start + lengths[index];
+        switch (type) {
+            case IDENTIFIER:
+            case NUMBER:
+                return symbols.intern(source, start, end);
+            case STRING:
+                return source.substring(start, end);
+            default:
+                return Scanner.lexemeOf(type);
+        }
+    }
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), lines[index]);
+    }
+}
@@ -0,0 +1,17 @@
+package org.something.lox;
+
+/**
+ * Thrown by the Interpreter's unboxed number paths when an operand turns
+ * out not to be a number. Carries the value that was produced instead so
+ * the caller can finish the operation generically.
+ */
+class UnexpectedResult extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
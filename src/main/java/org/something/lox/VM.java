@@ -0,0 +1,480 @@
+package org.something.lox;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.something.lox.OpCode.*;
+
+/**
+ * Stack-based virtual machine executing the output of {@link BytecodeCompiler}.
+ */
+class VM {
+    private static final int FRAMES_MAX = 1 << 16;
+
+    private static class CallFrame {
+        Obj.Closure closure;
+        int ip;
+        int base;
+    }
+
+    private final Map<String, Object> globals = new HashMap<>();
+    private final PrintStream out;
+    private final PrintStream err;
+    boolean hadRuntimeError = false;
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Obj.Upvalue openUpvalues = null;
+
+    VM() {
+        this(System.out, System.err);
+    }
+
+    VM(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+        globals.put("clock", new Obj.Native(0,
+                args -> (double) System.currentTimeMillis() / 1000.0));
+    }
+
+    void interpret(Obj.Function script) {
+        try {
+            Obj.Closure closure = new Obj.Closure(script);
+            push(closure);
+            callClosure(closure, 0, 0);
+            run();
+        } catch (RuntimeError e) {
+            // The frame running when the error was thrown holds its code.
+            if (frameCount > 0) e.source = frames[frameCount - 1].closure.function.source;
+            RuntimeErrorEvent.emit(e);
+            resetStack();
+            err.println(e.report());
+            hadRuntimeError = true;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case CONSTANT:
+                    push(constants[code[ip++]]);
+                    break;
+                case NIL: push(null); break;
+                case TRUE: push(true); break;
+                case FALSE: push(false); break;
+                case POP: sp--; break;
+                case GET_LOCAL:
+                    push(stack[base + code[ip++]]);
+                    break;
+                case SET_LOCAL:
+                    stack[base + code[ip++]] = peek(0);
+                    break;
+                case GET_GLOBAL: {
+                    String name = (String) constants[code[ip++]];
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw error(frame, ip, "Undefined variable '" + name + "'.");
+                    }
+                    push(value);
+                    break;
+                }
+                case DEFINE_GLOBAL:
+                    globals.put((String) constants[code[ip++]], pop());
+                    break;
+                case SET_GLOBAL: {
+                    String name = (String) constants[code[ip++]];
+                    if (!globals.containsKey(name)) {
+                        throw error(frame, ip, "Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, peek(0));
+                    break;
+                }
+                case GET_UPVALUE: {
+                    Obj.Upvalue upvalue = frame.closure.upvalues[code[ip++]];
+                    push(upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed);
+                    break;
+                }
+                case SET_UPVALUE: {
+                    Obj.Upvalue upvalue = frame.closure.upvalues[code[ip++]];
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = peek(0);
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                    break;
+                }
+                case GET_PROPERTY: {
+                    String name = (String) constants[code[ip++]];
+                    if (!(peek(0) instanceof Obj.Instance instance)) {
+                        throw error(frame, ip, "Only instances have properties.");
+                    }
+
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        stack[sp - 1] = value;
+                        break;
+                    }
+
+                    Obj.Closure method = instance.klass.methods.get(name);
+                    if (method == null) {
+                        throw error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new Obj.BoundMethod(instance, method);
+                    break;
+                }
+                case SET_PROPERTY: {
+                    String name = (String) constants[code[ip++]];
+                    if (!(peek(1) instanceof Obj.Instance instance)) {
+                        throw error(frame, ip, "Only instances have fields.");
+                    }
+
+                    Object value = pop();
+                    instance.fields.put(name, value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case GET_SUPER: {
+                    String name = (String) constants[code[ip++]];
+                    Obj.Class superclass = (Obj.Class) pop();
+                    Obj.Closure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(frame, ip, "Undefined property `" + name + "'.");
+                    }
+                    stack[sp - 1] = new Obj.BoundMethod(peek(0), method);
+                    break;
+                }
+                case EQUAL: {
+                    Object right = pop();
+                    stack[sp - 1] = Interpreter.isEqual(peek(0), right);
+                    break;
+                }
+                case GREATER: {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) > right;
+                    break;
+                }
+                case GREATER_EQUAL: {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) >= right;
+                    break;
+                }
+                case LESS: {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) < right;
+                    break;
+                }
+                case LESS_EQUAL: {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) <= right;
+                    break;
+                }
+                case ADD: {
+                    Object right = pop();
+                    Object left = peek(0);
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[sp - 1] = (double) left + (double) right;
+                    } else if (ConcatString.canConcat(left, right)) {
+                        stack[sp - 1] = ConcatString.concat(left, right);
+                    } else {
+                        throw error(frame, ip, "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case SUBTRACT: {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) - right;
+                    break;
+                }
+                case MULTIPLY: {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) * right;
+                    break;
+                }
+                case DIVIDE: {
+                    if (peek(0) instanceof Double && peek(0).equals((double) 0)) {
+                        throw error(frame, ip, "Division by 0 not computable.");
+                    }
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[sp - 1] = (double) peek(0) / right;
+                    break;
+                }
+                case NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(peek(0));
+                    break;
+                case NEGATE:
+                    if (!(peek(0) instanceof Double)) {
+                        throw error(frame, ip, "Operando must be a number.");
+                    }
+                    stack[sp - 1] = -(double) peek(0);
+                    break;
+                case PRINT:
+                    out.println(Interpreter.stringify(pop()));
+                    break;
+                case JUMP:
+                    ip = code[ip];
+                    break;
+                case JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(peek(0))) {
+                        ip++;
+                    } else {
+                        ip = code[ip];
+                    }
+                    break;
+                case LOOP:
+                    ip = code[ip];
+                    break;
+                case CALL: {
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    callValue(peek(argCount), argCount, frame.closure.function.chunk.lines[ip - 1]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case INVOKE: {
+                    String name = (String) constants[code[ip++]];
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    invoke(name, argCount, frame.closure.function.chunk.lines[ip - 1]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case SUPER_INVOKE: {
+                    String name = (String) constants[code[ip++]];
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    Obj.Class superclass = (Obj.Class) pop();
+                    Obj.Closure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(frame, ip, "Undefined property `" + name + "'.");
+                    }
+                    callClosure(method, argCount, frame.closure.function.chunk.lines[ip - 1]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case CLOSURE: {
+                    Obj.Function function = (Obj.Function) constants[code[ip++]];
+                    Obj.Closure closure = new Obj.Closure(function);
+                    push(closure);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++];
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(base + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    break;
+                }
+                case CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case RETURN: {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    if (frameCount == 0) {
+                        sp = 0;
+                        return;
+                    }
+
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case CLASS:
+                    push(new Obj.Class((String) constants[code[ip++]]));
+                    break;
+                case INHERIT: {
+                    if (!(peek(1) instanceof Obj.Class superclass)) {
+                        throw error(frame, ip, "Superclass must be a class.");
+                    }
+
+                    Obj.Class subclass = (Obj.Class) pop();
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.initializer = superclass.initializer;
+                    break;
+                }
+                case METHOD: {
+                    String name = (String) constants[code[ip++]];
+                    Obj.Closure method = (Obj.Closure) pop();
+                    Obj.Class klass = (Obj.Class) peek(0);
+                    klass.methods.put(name, method);
+                    if (name.equals("init")) klass.initializer = method;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argCount, int line) {
+        if (callee instanceof Obj.Closure closure) {
+            callClosure(closure, argCount, line);
+        } else if (callee instanceof Obj.BoundMethod bound) {
+            stack[sp - argCount - 1] = bound.receiver;
+            callClosure(bound.method, argCount, line);
+        } else if (callee instanceof Obj.Class klass) {
+            stack[sp - argCount - 1] = new Obj.Instance(klass);
+            if (klass.initializer != null) {
+                callClosure(klass.initializer, argCount, line);
+            } else if (argCount != 0) {
+                throw new RuntimeError(line, "Expected 0 arguments but got " + argCount + ".");
+            }
+        } else if (callee instanceof Obj.Native nativeFn) {
+            checkArity(nativeFn.arity, argCount, line);
+            Object[] args = Arrays.copyOfRange(stack, sp - argCount, sp);
+            Object result = nativeFn.function.call(args);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw new RuntimeError(line, "Can only call functions and classes.");
+        }
+    }
+
+    private void invoke(String name, int argCount, int line) {
+        if (!(peek(argCount) instanceof Obj.Instance instance)) {
+            throw new RuntimeError(line, "Only instances have properties.");
+        }
+
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name)) {
+            stack[sp - argCount - 1] = field;
+            callValue(field, argCount, line);
+            return;
+        }
+
+        Obj.Closure method = instance.klass.methods.get(name);
+        if (method == null) {
+            throw new RuntimeError(line, "Undefined property '" + name + "'.");
+        }
+        callClosure(method, argCount, line);
+    }
+
+    private void callClosure(Obj.Closure closure, int argCount, int line) {
+        checkArity(closure.function.arity, argCount, line);
+
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(line, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+
+        int needed = frame.base + closure.function.maxStack;
+        if (needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+        }
+    }
+
+    private void checkArity(int arity, int argCount, int line) {
+        if (argCount != arity) {
+            throw new RuntimeError(line, "Expected "
+                    + arity + " arguments but got "
+                    + argCount + ".");
+        }
+    }
+
+    private Obj.Upvalue captureUpvalue(int slot) {
+        Obj.Upvalue previous = null;
+        Obj.Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        Obj.Upvalue created = new Obj.Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Obj.Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void checkNumberOperands(CallFrame frame, int ip) {
+        if (peek(0) instanceof Double && peek(1) instanceof Double) return;
+        throw error(frame, ip, "Operands must be numbers.");
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.lines[ip - 1], message);
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+}
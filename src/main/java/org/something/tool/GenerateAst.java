@@ -12,33 +12,35 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
+        // Fields after ';' are filled in by the Resolver. A depth of -1
+        // marks a global; slots counts the locals a scope declares.
         defineAst(outputDir, "Expr", Arrays.asList(
            "Sequence : List<Expr> expressions",
-           "Assign   : Token name, Expr value",
-           "Binary   : Expr left, Token operator, Expr right",
+           "Assign   : Token name, Expr value ; int depth = -1, int slot = -1",
+           "Binary   : Expr left, Token operator, Expr right ; Specialization specialization = Specialization.UNINITIALIZED",
            "Grouping : Expr expression",
            "Literal  : Object value",
-           "Logical  : Expr left, Token operator, Expr right",
-           "Unary    : Token operator, Expr right",
-           "Var      : Token name",
+           "Logical  : Expr left, Token operator, Expr right ; Specialization specialization = Specialization.UNINITIALIZED",
+           "Unary    : Token operator, Expr right ; Specialization specialization = Specialization.UNINITIALIZED",
+           "Var      : Token name ; int depth = -1, int slot = -1, Stmt.Var declaration",
            "Call     : Expr callee, Token paren, List<Expr> args",
-           "Get      : Expr object, Token name",
-           "Set      : Expr object, Token name, Expr value",
-           "This     : Token keyword",
-           "Super    : Token keyword, Token method",
-           "Fun      : List<Token> parameters, List<Stmt> body"
+           "Get      : Expr object, Token name ; int site = InlineCache.newSite()",
+           "Set      : Expr object, Token name, Expr value ; int site = InlineCache.newSite()",
+           "This     : Token keyword ; int depth = -1, int slot = -1",
+           "Super    : Token keyword, Token method ; int depth = -1",
+           "Fun      : List<Token> parameters, List<Stmt> body ; int slots = 0, boolean captured = false, int line = 0, int calls = 0, CompiledFunction compiled"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-           "Block      : List<Stmt> statements",
+           "Block      : List<Stmt> statements ; int slots = 0",
            "Expression : Expr expression",
            "Class      : Token name, Expr.Var superclass, List<Stmt.Fun> methods",
            "Fun        : Token name, Expr.Fun function",
            "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
            "Print      : Expr expression",
-           "Var        : Token name, Expr initializer",
+           "Var        : Token name, Expr initializer ; boolean assigned = false",
            "While      : Expr condition, Stmt body",
-           "Return     : Token keyword, Expr value",
+           "Return     : Token keyword, Expr value ; boolean tailCall = false",
            "Break      : "
         ));
     }
@@ -59,8 +61,9 @@ public class GenerateAst {
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split(";");
+            String resolved = fields.length > 1 ? fields[1].trim() : "";
+            defineType(writer, baseName, className, fields[0].trim(), resolved);
         }
 
         writer.println();
@@ -85,7 +88,8 @@ public class GenerateAst {
     }
 
     private static void defineType(
-            PrintWriter writer, String baseName, String className, String fieldList
+            PrintWriter writer, String baseName, String className, String fieldList,
+            String resolvedList
     ) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
@@ -116,6 +120,12 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        if (!resolvedList.isEmpty()) {
+            for (String field : resolvedList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
+
         writer.println("    }");
     }
 }
\ No newline at end of file